@@ -0,0 +1,50 @@
+package ahjd.asgDatabase;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs DatabaseBenchmark once per thread count and writes one JSON result file per run.
+ * <p>
+ * Arguments: output directory (default target/jmh), then thread counts (default 1 4 8).
+ * -Dbench.rows=1000,100000 narrows the table sizes, -Dbench.include=getData narrows the methods.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] DEFAULT_THREADS = {1, 4, 8};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        File outputDir = new File(args.length > 0 ? args[0] : "target/jmh");
+        int[] threadCounts = DEFAULT_THREADS;
+        if (args.length > 1) {
+            threadCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        outputDir.mkdirs();
+
+        String include = DatabaseBenchmark.class.getSimpleName() + "." + System.getProperty("bench.include", "");
+        String rows = System.getProperty("bench.rows");
+
+        for (int threads : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(outputDir, "threads-" + threads + ".json").getPath());
+            if (rows != null && !rows.isBlank()) {
+                options.param("rows", rows.split(","));
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
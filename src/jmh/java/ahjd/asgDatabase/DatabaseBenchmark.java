@@ -0,0 +1,196 @@
+package ahjd.asgDatabase;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Hot paths of DatabaseAPI against a seeded temp-file database, no server required.
+ * Run through BenchmarkRunner or "mvn -P benchmark verify".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    static final String DATA_TYPE = "bench_data";
+    static final String OBJECT_TYPE = "bench_object";
+    static final String TAG_TARGET = "bench_target";
+    static final int KEYS_PER_IDENTIFIER = 10;
+    static final int TAG_BUCKETS = 1000;
+
+    /**
+     * Rows in data_storage; identifiers, objects and tagged targets are rows / KEYS_PER_IDENTIFIER
+     */
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private Path dataFolder;
+    private DatabaseConnection connection;
+    private DatabaseAPI api;
+    private int identifiers;
+
+    public static class Profile {
+        public String name;
+        public int level;
+        public double balance;
+        public List<String> perks;
+
+        public Profile() {
+        }
+
+        Profile(int i) {
+            this.name = "profile-" + i;
+            this.level = i % 100;
+            this.balance = i * 1.5;
+            this.perks = List.of("fly", "kit-" + (i % 7), "home-" + (i % 3));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataFolder = Files.createTempDirectory("asgdb-bench");
+        connection = new DatabaseConnection(dataFolder.toFile(), Logger.getLogger("AsgDatabase-Benchmark"), 4, 64);
+        if (!connection.connect()) {
+            throw new IllegalStateException("Could not open benchmark database in " + dataFolder);
+        }
+        api = new DatabaseAPI(connection);
+        identifiers = Math.max(1, rows / KEYS_PER_IDENTIFIER);
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        connection.disconnect();
+        try (Stream<Path> files = Files.walk(dataFolder)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // ==================== BENCHMARKS ====================
+
+    @Benchmark
+    public boolean storeData() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return api.storeData(DATA_TYPE, identifier(random), key(random), random.nextInt());
+    }
+
+    @Benchmark
+    public boolean storeDataBatch() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> values = new HashMap<>();
+        for (int k = 0; k < KEYS_PER_IDENTIFIER; k++) {
+            values.put("key-" + k, random.nextInt());
+        }
+        return api.storeDataBatch(DATA_TYPE, identifier(random), values);
+    }
+
+    @Benchmark
+    public Integer getData() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return api.getData(DATA_TYPE, identifier(random), key(random), Integer.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> getAllData() {
+        return api.getAllData(DATA_TYPE, identifier(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public boolean storeObject() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return api.storeObject(OBJECT_TYPE, identifier(random), new Profile(random.nextInt(identifiers)));
+    }
+
+    @Benchmark
+    public Profile getObject() {
+        return api.getObject(OBJECT_TYPE, identifier(ThreadLocalRandom.current()), Profile.class);
+    }
+
+    @Benchmark
+    public List<String> findByTag() {
+        return api.findByTag(TAG_TARGET, "bucket", String.valueOf(ThreadLocalRandom.current().nextInt(TAG_BUCKETS)));
+    }
+
+    // ==================== SEEDING ====================
+
+    /**
+     * Bulk insert the fixture in one transaction, bypassing the API so large sizes seed quickly
+     */
+    private void seed() throws Exception {
+        connection.withWriteConnection(conn -> {
+            conn.setAutoCommit(false);
+            try (PreparedStatement data = conn.prepareStatement(
+                         "INSERT INTO data_storage (data_type, identifier, data_key, value_num, value_type) VALUES (?, ?, ?, ?, 'INTEGER')");
+                 PreparedStatement objects = conn.prepareStatement(
+                         "INSERT INTO object_storage (object_type, object_id, object_data) VALUES (?, ?, ?)");
+                 PreparedStatement tags = conn.prepareStatement(
+                         "INSERT INTO data_tags (target_type, target_id, tag_name, tag_value) VALUES (?, ?, 'bucket', ?)")) {
+                for (int i = 0; i < rows; i++) {
+                    data.setString(1, DATA_TYPE);
+                    data.setString(2, "id-" + (i / KEYS_PER_IDENTIFIER));
+                    data.setString(3, "key-" + (i % KEYS_PER_IDENTIFIER));
+                    data.setInt(4, i);
+                    data.addBatch();
+                    if (i % 10_000 == 9_999) data.executeBatch();
+                }
+                data.executeBatch();
+
+                for (int i = 0; i < identifiers; i++) {
+                    objects.setString(1, OBJECT_TYPE);
+                    objects.setString(2, "id-" + i);
+                    objects.setString(3, api.encodeObject(new Profile(i)).data());
+                    objects.addBatch();
+                    tags.setString(1, TAG_TARGET);
+                    tags.setString(2, "id-" + i);
+                    tags.setString(3, String.valueOf(i % TAG_BUCKETS));
+                    tags.addBatch();
+                    if (i % 10_000 == 9_999) {
+                        objects.executeBatch();
+                        tags.executeBatch();
+                    }
+                }
+                objects.executeBatch();
+                tags.executeBatch();
+                conn.commit();
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return null;
+        });
+        connection.withWriteConnection(conn -> {
+            try (var stmt = conn.createStatement()) {
+                stmt.execute("ANALYZE");
+            }
+            return null;
+        });
+    }
+
+    private String identifier(ThreadLocalRandom random) {
+        return "id-" + random.nextInt(identifiers);
+    }
+
+    private static String key(ThreadLocalRandom random) {
+        return "key-" + random.nextInt(KEYS_PER_IDENTIFIER);
+    }
+}
@@ -1,39 +1,214 @@
 package ahjd.asgDatabase;
 
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
 public class AsgDatabase extends JavaPlugin {
 
     private static AsgDatabase instance;
     private DatabaseConnection databaseConnection;
+    private final List<DatabaseConnection> shardConnections = new ArrayList<>();
+    private ShardRouter shardRouter;
     private DatabaseAPI databaseAPI;
+    private DatabaseExecutor databaseExecutor;
+    private AsyncDatabaseAPI asyncDatabaseAPI;
+    private final List<SchemaMigrator> schemaMigrators = new ArrayList<>();
+    private PlayerSessionManager sessionManager;
+    private ExpirySweeper expirySweeper;
+    private DatabaseBackup databaseBackup;
+    private DatabaseMaintenance databaseMaintenance;
 
     @Override
     public void onEnable() {
         instance = this;
 
-        // Initialize database connection
-        databaseConnection = new DatabaseConnection(this);
-        if (!databaseConnection.connect()) {
-            getLogger().severe("Failed to connect to database! Disabling plugin...");
+        saveDefaultConfig();
+        int readConnections = getConfig().getInt("database.read-connections", 4);
+        int statementCacheSize = getConfig().getInt("database.statement-cache-size", 64);
+        DatabaseConnection.StorageSettings storageSettings = DatabaseConnection.StorageSettings.DEFAULTS;
+        try {
+            storageSettings = new DatabaseConnection.StorageSettings(
+                    getConfig().getLong("database.cache-size-kb", 8192),
+                    getConfig().getLong("database.mmap-size-mb", 256) << 20,
+                    getConfig().getInt("database.busy-timeout-ms", 5000),
+                    getConfig().getLong("database.journal-size-limit-mb", 64) << 20,
+                    getConfig().getInt("database.wal-autocheckpoint-pages", 1000),
+                    getConfig().getString("database.auto-vacuum", "incremental"));
+        } catch (IllegalArgumentException e) {
+            getLogger().warning(e.getMessage() + ", using the default storage settings");
+        }
+
+        // Initialize database connections: Database.db, then one extra file per additional shard
+        int shardCount = getConfig().getBoolean("sharding.enabled", false)
+                ? Math.max(1, getConfig().getInt("sharding.shards", 1)) : 1;
+        databaseConnection = new DatabaseConnection(this, readConnections, statementCacheSize);
+        shardConnections.add(databaseConnection);
+        for (int shard = 1; shard < shardCount; shard++) {
+            shardConnections.add(new DatabaseConnection(getDataFolder(), "Database-shard-" + shard + ".db",
+                    getLogger(), readConnections, statementCacheSize));
+        }
+        for (DatabaseConnection shard : shardConnections) {
+            shard.setStorageSettings(storageSettings);
+            if (!shard.connect()) {
+                getLogger().severe("Failed to connect to database " + shard.getDatabaseFile().getName()
+                        + "! Disabling plugin...");
+                getServer().getPluginManager().disablePlugin(this);
+                return;
+            }
+        }
+        shardRouter = createShardRouter();
+        if (shardRouter == null) {
             getServer().getPluginManager().disablePlugin(this);
             return;
         }
 
+        // Convert rows written by older versions without blocking startup
+        boolean compactData = getConfig().getBoolean("database.compact-data", false);
+        for (DatabaseConnection shard : shardConnections) {
+            SchemaMigrator migrator = new SchemaMigrator(shard, getLogger(), compactData);
+            schemaMigrators.add(migrator);
+            migrator.start();
+        }
+
         // Initialize API
-        databaseAPI = new DatabaseAPI(databaseConnection);
+        databaseAPI = new DatabaseAPI(shardRouter);
+        databaseAPI.setObjectCompressionThreshold(getConfig().getInt("objects.compression-threshold", 1024));
+        databaseAPI.getMetrics().setSlowQueryThreshold(getConfig().getLong("metrics.slow-query-threshold-ms", 50));
+        if (getConfig().getBoolean("cache.data.enabled", false)) {
+            databaseAPI.enableDataCache(
+                    getConfig().getInt("cache.data.max-entries", 10000),
+                    getConfig().getLong("cache.data.max-keys", 0),
+                    getConfig().getLong("cache.data.ttl-seconds", 300) * 1000);
+        }
+        if (getConfig().getBoolean("cache.objects.enabled", false)) {
+            databaseAPI.enableObjectCache(
+                    getConfig().getInt("cache.objects.max-entries", 5000),
+                    getConfig().getLong("cache.objects.max-chars", 0),
+                    getConfig().getLong("cache.objects.ttl-seconds", 300) * 1000,
+                    getConfig().getBoolean("cache.objects.share-instances", false));
+        }
+        if (getConfig().getBoolean("write-behind.enabled", false)) {
+            databaseAPI.enableWriteBehind(
+                    getConfig().getLong("write-behind.flush-interval-ms", 1000),
+                    getConfig().getInt("write-behind.batch-size", 500),
+                    getConfig().getInt("write-behind.max-pending", 10000));
+            getLogger().info("Write-behind buffering enabled");
+        }
+        expirySweeper = new ExpirySweeper(databaseAPI, getLogger(),
+                getConfig().getInt("expiry.batch-size", 500),
+                getConfig().getInt("expiry.max-batches-per-cycle", 20));
+        expirySweeper.start(getConfig().getLong("expiry.sweep-interval-seconds", 60));
+
+        DatabaseBackup.Method backupMethod;
+        try {
+            backupMethod = DatabaseBackup.Method.valueOf(getConfig().getString("backup.method", "online").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown backup.method, using online");
+            backupMethod = DatabaseBackup.Method.ONLINE;
+        }
+        databaseBackup = new DatabaseBackup(shardConnections,
+                new File(getDataFolder(), getConfig().getString("backup.folder", "backups")), getLogger(),
+                backupMethod, getConfig().getInt("backup.keep", 5), getConfig().getInt("backup.pages-per-step", 0));
+        databaseBackup.start(getConfig().getLong("backup.interval-minutes", 360));
+
+        databaseMaintenance = new DatabaseMaintenance(shardConnections, getLogger(),
+                getConfig().getLong("maintenance.checkpoint.idle-writes-per-tick", 20),
+                getConfig().getLong("maintenance.checkpoint.truncate-wal-mb", 64) << 20,
+                getConfig().getLong("maintenance.optimize-interval-minutes", 60),
+                getConfig().getLong("maintenance.incremental-vacuum.interval-minutes", 30),
+                getConfig().getInt("maintenance.incremental-vacuum.max-pages", 2000));
+        databaseMaintenance.start(getConfig().getLong("maintenance.tick-seconds", 10));
+
+        // One write lane per shard, so writes to different files run in parallel
+        databaseExecutor = new DatabaseExecutor(getLogger(), readConnections, shardCount);
+        asyncDatabaseAPI = new AsyncDatabaseAPI(this, databaseAPI, databaseExecutor);
+
+        if (getConfig().getBoolean("sessions.enabled", false)) {
+            sessionManager = new PlayerSessionManager(this, databaseAPI, databaseExecutor);
+            sessionManager.start(getConfig().getLong("sessions.flush-interval-seconds", 60) * 20);
+            getLogger().info("Player session preloading enabled");
+        }
+
+        PluginCommand command = getCommand("asgdb");
+        if (command != null) {
+            AsgDatabaseCommand executor = new AsgDatabaseCommand(databaseAPI, databaseBackup, databaseMaintenance);
+            command.setExecutor(executor);
+            command.setTabCompleter(executor);
+        }
 
         getLogger().info("DatabaseManager has been enabled successfully!");
     }
 
     @Override
     public void onDisable() {
-        if (databaseConnection != null) {
-            databaseConnection.disconnect();
+        schemaMigrators.forEach(SchemaMigrator::stop);
+        if (expirySweeper != null) {
+            expirySweeper.shutdown();
+        }
+        if (databaseMaintenance != null) {
+            databaseMaintenance.shutdown();
         }
+        // Cancel or finish a running snapshot before the connections are closed
+        if (databaseBackup != null) {
+            databaseBackup.shutdown();
+        }
+        // Drain queued async operations before the connection goes away
+        if (databaseExecutor != null) {
+            databaseExecutor.shutdown(30, TimeUnit.SECONDS);
+        }
+        // Write back online players before the final buffer flush
+        if (sessionManager != null) {
+            sessionManager.shutdown();
+        }
+        // Force out anything still sitting in the write-behind buffer
+        if (databaseAPI != null) {
+            databaseAPI.shutdown();
+        }
+        shardConnections.forEach(DatabaseConnection::disconnect);
         getLogger().info("DatabaseManager has been disabled!");
     }
 
+    /**
+     * Routes from the sharding config section, or null (logged) when the routes are invalid
+     */
+    private ShardRouter createShardRouter() {
+        ShardRouter.Mode mode;
+        try {
+            mode = ShardRouter.Mode.valueOf(getConfig().getString("sharding.mode", "hash").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown sharding.mode, using hash");
+            mode = ShardRouter.Mode.HASH;
+        }
+        Map<String, Integer> routes = new HashMap<>();
+        ConfigurationSection section = getConfig().getConfigurationSection("sharding.routes");
+        if (section != null && !section.getKeys(false).isEmpty()) {
+            // With sharding off there is only Database.db, so routes to other shards would fail validation
+            if (getConfig().getBoolean("sharding.enabled", false)) {
+                for (String type : section.getKeys(false)) {
+                    routes.put(type, section.getInt(type));
+                }
+            } else {
+                getLogger().warning("sharding.routes is ignored while sharding is disabled");
+            }
+        }
+        try {
+            ShardRouter router = new ShardRouter(shardConnections, mode, routes);
+            if (router.isSharded()) {
+                getLogger().info("Sharding enabled across " + shardConnections.size() + " database files ("
+                        + mode.name().toLowerCase(Locale.ROOT) + ", " + routes.size() + " routes)");
+            }
+            return router;
+        } catch (IllegalArgumentException e) {
+            getLogger().severe("Invalid sharding config: " + e.getMessage() + ". Disabling plugin...");
+            return null;
+        }
+    }
+
     public static AsgDatabase getInstance() {
         return instance;
     }
@@ -42,6 +217,32 @@ public class AsgDatabase extends JavaPlugin {
         return databaseAPI;
     }
 
+    public AsyncDatabaseAPI getAsyncDatabaseAPI() {
+        return asyncDatabaseAPI;
+    }
+
+    /**
+     * Null unless sessions.enabled is set in the config
+     */
+    public PlayerSessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    public DatabaseBackup getDatabaseBackup() {
+        return databaseBackup;
+    }
+
+    public DatabaseMaintenance getDatabaseMaintenance() {
+        return databaseMaintenance;
+    }
+
+    public ShardRouter getShardRouter() {
+        return shardRouter;
+    }
+
+    /**
+     * The primary connection (Database.db); with sharding see getShardRouter() for the others
+     */
     public DatabaseConnection getDatabaseConnection() {
         return databaseConnection;
     }
@@ -0,0 +1,174 @@
+package ahjd.asgDatabase;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * /asgdb admin command
+ */
+public class AsgDatabaseCommand implements CommandExecutor, TabCompleter {
+
+    private static final int MAX_LINES = 15;
+
+    private final DatabaseAPI databaseAPI;
+    private final DatabaseBackup databaseBackup;
+    private final DatabaseMaintenance databaseMaintenance;
+
+    public AsgDatabaseCommand(DatabaseAPI databaseAPI, DatabaseBackup databaseBackup,
+                              DatabaseMaintenance databaseMaintenance) {
+        this.databaseAPI = databaseAPI;
+        this.databaseBackup = databaseBackup;
+        this.databaseMaintenance = databaseMaintenance;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /" + label + " stats [operation|reset] | backup [status] | maintenance [task]");
+            return true;
+        }
+
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "stats" -> {
+                if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+                    databaseAPI.getMetrics().reset();
+                    sender.sendMessage(ChatColor.GREEN + "AsgDatabase statistics reset");
+                } else if (args.length > 1) {
+                    sendOperationStats(sender, args[1]);
+                } else {
+                    sendStats(sender);
+                }
+            }
+            case "backup" -> {
+                if (args.length > 1 && args[1].equalsIgnoreCase("status")) {
+                    sendBackupStatus(sender);
+                } else if (databaseBackup.isRunning()) {
+                    sender.sendMessage(ChatColor.YELLOW + "A backup is already running");
+                    sendBackupStatus(sender);
+                } else {
+                    databaseBackup.backup();
+                    sender.sendMessage(ChatColor.GREEN + "Backup started, see /" + label + " backup status");
+                }
+            }
+            case "maintenance" -> {
+                if (args.length > 1) {
+                    runMaintenance(sender, args[1].toLowerCase(Locale.ROOT));
+                } else {
+                    sendMaintenanceStatus(sender);
+                }
+            }
+            default -> sender.sendMessage(ChatColor.RED + "Unknown subcommand: " + args[0]);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> options = new ArrayList<>();
+        if (args.length == 1) {
+            options.add("stats");
+            options.add("backup");
+            options.add("maintenance");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("backup")) {
+            options.add("status");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("maintenance")) {
+            options.addAll(DatabaseMaintenance.TASKS);
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("stats")) {
+            options.add("reset");
+            databaseAPI.getMetrics().snapshotByOperation().forEach(s -> options.add(s.operation()));
+        }
+        String prefix = args.length == 0 ? "" : args[args.length - 1].toLowerCase(Locale.ROOT);
+        options.removeIf(option -> !option.toLowerCase(Locale.ROOT).startsWith(prefix));
+        return options;
+    }
+
+    // ==================== STATS ====================
+
+    private void sendStats(CommandSender sender) {
+        List<DatabaseMetrics.Snapshot> snapshots = databaseAPI.getMetrics().snapshotByOperation();
+        sender.sendMessage(ChatColor.GOLD + "AsgDatabase operations by total time:");
+        if (snapshots.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "  nothing recorded yet");
+        }
+        snapshots.stream().limit(MAX_LINES).forEach(s -> sender.sendMessage(format(s.operation(), s)));
+
+        if (databaseAPI.isWriteBehindEnabled()) {
+            sender.sendMessage(ChatColor.GRAY + "Write-behind: " + databaseAPI.getPendingWriteCount() + " pending");
+        }
+        sendCacheStats(sender, "Data cache", databaseAPI.getDataCacheStats());
+        sendCacheStats(sender, "Object cache", databaseAPI.getObjectCacheStats());
+    }
+
+    private void sendOperationStats(CommandSender sender, String operation) {
+        List<DatabaseMetrics.Snapshot> snapshots = databaseAPI.getMetrics().snapshot().stream()
+                .filter(s -> s.operation().equalsIgnoreCase(operation))
+                .toList();
+        if (snapshots.isEmpty()) {
+            sender.sendMessage(ChatColor.RED + "No calls recorded for " + operation);
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + snapshots.get(0).operation() + " by data type:");
+        snapshots.stream().limit(MAX_LINES).forEach(s -> sender.sendMessage(format(s.dataType(), s)));
+    }
+
+    private static void sendCacheStats(CommandSender sender, String name, LruCache.Stats stats) {
+        if (stats == null) return;
+        sender.sendMessage(ChatColor.GRAY + String.format(Locale.ROOT, "%s: %d entries, %.1f%% hits, %d evictions",
+                name, stats.size(), stats.hitRate() * 100, stats.evictions()));
+    }
+
+    // ==================== BACKUP ====================
+
+    private void sendBackupStatus(CommandSender sender) {
+        DatabaseBackup.Status status = databaseBackup.getStatus();
+        if (status.running()) {
+            sender.sendMessage(ChatColor.GOLD + String.format(Locale.ROOT, "Backup running (%s): %.0f%%",
+                    status.method().name().toLowerCase(Locale.ROOT), status.progress() * 100));
+        }
+        if (status.lastError() != null) {
+            sender.sendMessage(ChatColor.RED + "Last backup failed: " + status.lastError());
+        } else if (status.lastBackup() != null) {
+            long ageMinutes = (System.currentTimeMillis() - status.lastCompletedAt()) / 60_000;
+            sender.sendMessage(ChatColor.GRAY + String.format(Locale.ROOT, "Last backup: %s, %d KB in %d ms, %d min ago",
+                    status.lastBackup().getName(), status.lastSizeBytes() / 1024, status.lastDurationMillis(), ageMinutes));
+        } else if (!status.running()) {
+            sender.sendMessage(ChatColor.GRAY + "No backup taken since startup");
+        }
+        sender.sendMessage(ChatColor.GRAY + "Snapshots on disk: " + databaseBackup.listBackups().length);
+    }
+
+    // ==================== MAINTENANCE ====================
+
+    private void sendMaintenanceStatus(CommandSender sender) {
+        sender.sendMessage(ChatColor.GOLD + "AsgDatabase maintenance, WAL " + databaseMaintenance.getWalSize() / 1024 + " KB:");
+        long now = System.currentTimeMillis();
+        for (DatabaseMaintenance.TaskStatus task : databaseMaintenance.getStatus()) {
+            String when = task.lastRunAt() == 0 ? "" : String.format(Locale.ROOT, " %d runs, last %d s ago in %d ms:",
+                    task.runs(), (now - task.lastRunAt()) / 1000, task.lastDurationMillis());
+            sender.sendMessage(ChatColor.YELLOW + "  " + task.name() + ChatColor.WHITE + when + " " + task.lastResult());
+        }
+    }
+
+    private void runMaintenance(CommandSender sender, String task) {
+        if (!DatabaseMaintenance.TASKS.contains(task)) {
+            sender.sendMessage(ChatColor.RED + "Unknown task " + task + ", expected one of " + DatabaseMaintenance.TASKS);
+            return;
+        }
+        databaseMaintenance.runNow(task);
+        sender.sendMessage(ChatColor.GREEN + "Started " + task + ", see /asgdb maintenance for the result");
+    }
+
+    private static String format(String name, DatabaseMetrics.Snapshot s) {
+        String errors = s.errors() > 0 ? ChatColor.RED + " " + s.errors() + " errors" : "";
+        return ChatColor.YELLOW + "  " + name + ChatColor.WHITE + String.format(Locale.ROOT,
+                " %d calls, p50 %.2f ms, p99 %.2f ms, max %.2f ms, total %.0f ms",
+                s.count(), s.p50Millis(), s.p99Millis(), s.maxMillis(), s.totalMillis()) + errors;
+    }
+}
@@ -0,0 +1,374 @@
+package ahjd.asgDatabase;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+public class AsyncDatabaseAPI {
+
+    private final DatabaseAPI api;
+    private final DatabaseExecutor executor;
+    private final Executor mainThreadExecutor;
+
+    public AsyncDatabaseAPI(Plugin plugin, DatabaseAPI api, DatabaseExecutor executor) {
+        this.api = api;
+        this.executor = executor;
+        this.mainThreadExecutor = task -> {
+            // While the plugin is disabling the scheduler rejects new tasks, so finish inline
+            if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, task);
+            } else {
+                task.run();
+            }
+        };
+    }
+
+    // ==================== UNIVERSAL DATA STORAGE ====================
+
+    public CompletableFuture<Boolean> storeData(String dataType, String identifier, String key, Object value) {
+        return executor.submitWrite(lane(dataType), () -> api.storeData(dataType, identifier, key, value));
+    }
+
+    public CompletableFuture<Boolean> storeData(String dataType, String identifier, String key, Object value, String metadata) {
+        return executor.submitWrite(lane(dataType), () -> api.storeData(dataType, identifier, key, value, metadata));
+    }
+
+    public CompletableFuture<Boolean> storeDataExpiring(String dataType, String identifier, String key, Object value, Duration ttl) {
+        return executor.submitWrite(lane(dataType), () -> api.storeDataExpiring(dataType, identifier, key, value, ttl));
+    }
+
+    public CompletableFuture<Boolean> storeDataBatch(String dataType, String identifier, Map<String, Object> data) {
+        return storeDataBatch(dataType, identifier, data, null);
+    }
+
+    public CompletableFuture<Boolean> storeDataBatch(String dataType, String identifier, Map<String, Object> data, String metadata) {
+        // Copy so later changes by the caller do not leak into the queued write
+        Map<String, Object> copy = data == null ? null : new HashMap<>(data);
+        return executor.submitWrite(lane(dataType), () -> api.storeDataBatch(dataType, identifier, copy, metadata));
+    }
+
+    public <T> CompletableFuture<T> getData(String dataType, String identifier, String key, Class<T> expectedType) {
+        return executor.submitRead(() -> api.getData(dataType, identifier, key, expectedType));
+    }
+
+    public CompletableFuture<String> getData(String dataType, String identifier, String key) {
+        return executor.submitRead(() -> api.getData(dataType, identifier, key));
+    }
+
+    public CompletableFuture<Map<String, Object>> getAllData(String dataType, String identifier) {
+        return executor.submitRead(() -> api.getAllData(dataType, identifier));
+    }
+
+    public CompletableFuture<Map<String, Map<String, Object>>> getAllDataBulk(String dataType, Collection<String> identifiers) {
+        List<String> copy = new ArrayList<>(identifiers);
+        return executor.submitRead(() -> api.getAllDataBulk(dataType, copy));
+    }
+
+    // ==================== ATOMIC UPDATES ====================
+
+    public CompletableFuture<Long> increment(String dataType, String identifier, String key, long delta) {
+        return executor.submitWrite(lane(dataType), () -> api.increment(dataType, identifier, key, delta));
+    }
+
+    public CompletableFuture<Double> increment(String dataType, String identifier, String key, double delta) {
+        return executor.submitWrite(lane(dataType), () -> api.increment(dataType, identifier, key, delta));
+    }
+
+    public CompletableFuture<Map<String, Number>> incrementBatch(String dataType, String identifier, Map<String, ? extends Number> deltas) {
+        Map<String, Number> copy = new LinkedHashMap<>(deltas);
+        return executor.submitWrite(lane(dataType), () -> api.incrementBatch(dataType, identifier, copy));
+    }
+
+    public CompletableFuture<Map<String, Map<String, Number>>> incrementBatch(String dataType,
+                                                                             Map<String, ? extends Map<String, ? extends Number>> deltas) {
+        Map<String, Map<String, Number>> copy = new LinkedHashMap<>();
+        deltas.forEach((identifier, values) -> copy.put(identifier, new LinkedHashMap<>(values)));
+        return executor.submitWrite(lane(dataType), () -> api.incrementBatch(dataType, copy));
+    }
+
+    public CompletableFuture<Boolean> compareAndSet(String dataType, String identifier, String key, Object expected, Object newValue) {
+        return executor.submitWrite(lane(dataType), () -> api.compareAndSet(dataType, identifier, key, expected, newValue));
+    }
+
+    public <T> CompletableFuture<T> updateData(String dataType, String identifier, String key, Class<T> expectedType, UnaryOperator<T> updater) {
+        return executor.submitWrite(lane(dataType), () -> api.updateData(dataType, identifier, key, expectedType, updater));
+    }
+
+    // ==================== LEADERBOARDS ====================
+
+    public CompletableFuture<List<Leaderboard.Entry>> getTopN(String dataType, String key, int n) {
+        return executor.submitRead(() -> api.getTopN(dataType, key, n));
+    }
+
+    public CompletableFuture<Integer> getRank(String dataType, String identifier, String key) {
+        return executor.submitRead(() -> api.getRank(dataType, identifier, key));
+    }
+
+    public CompletableFuture<Boolean> createLeaderboardIndex(String dataType, String key) {
+        return executor.submitWrite(lane(dataType), () -> api.createLeaderboardIndex(dataType, key));
+    }
+
+    // ==================== OBJECT STORAGE ====================
+
+    public CompletableFuture<Boolean> storeObject(String objectType, String objectId, Object object) {
+        return executor.submitWrite(lane(objectType), () -> api.storeObject(objectType, objectId, object));
+    }
+
+    public CompletableFuture<Boolean> storeObject(String objectType, String objectId, Object object, String format) {
+        return executor.submitWrite(lane(objectType), () -> api.storeObject(objectType, objectId, object, format));
+    }
+
+    public CompletableFuture<Boolean> storeObjectExpiring(String objectType, String objectId, Object object, Duration ttl) {
+        return executor.submitWrite(lane(objectType), () -> api.storeObjectExpiring(objectType, objectId, object, ttl));
+    }
+
+    public <T> CompletableFuture<T> getObject(String objectType, String objectId, Class<T> expectedType) {
+        return executor.submitRead(() -> api.getObject(objectType, objectId, expectedType));
+    }
+
+    public CompletableFuture<Map<String, Object>> getObjectAsMap(String objectType, String objectId) {
+        return executor.submitRead(() -> api.getObjectAsMap(objectType, objectId));
+    }
+
+    public <T> CompletableFuture<Map<String, T>> getObjectsBulk(String objectType, Collection<String> objectIds, Class<T> expectedType) {
+        List<String> copy = new ArrayList<>(objectIds);
+        return executor.submitRead(() -> api.getObjectsBulk(objectType, copy, expectedType));
+    }
+
+    public <T> CompletableFuture<DatabaseAPI.Versioned<T>> getObjectVersioned(String objectType, String objectId, Class<T> expectedType) {
+        return executor.submitRead(() -> api.getObjectVersioned(objectType, objectId, expectedType));
+    }
+
+    public CompletableFuture<Boolean> storeObjectIfVersion(String objectType, String objectId, Object object, long expectedVersion) {
+        return executor.submitWrite(lane(objectType), () -> api.storeObjectIfVersion(objectType, objectId, object, expectedVersion));
+    }
+
+    public CompletableFuture<Boolean> patchObject(String objectType, String objectId, Map<String, ?> changes) {
+        Map<String, Object> copy = new LinkedHashMap<>(changes);
+        return executor.submitWrite(lane(objectType), () -> api.patchObject(objectType, objectId, copy));
+    }
+
+    public CompletableFuture<Integer> patchObjects(String objectType, Map<String, ? extends Map<String, ?>> patches) {
+        Map<String, Map<String, Object>> copy = new LinkedHashMap<>();
+        patches.forEach((objectId, changes) -> copy.put(objectId, new LinkedHashMap<>(changes)));
+        return executor.submitWrite(lane(objectType), () -> api.patchObjects(objectType, copy));
+    }
+
+    public CompletableFuture<Boolean> removeObjectFields(String objectType, String objectId, String... paths) {
+        String[] copy = paths.clone();
+        return executor.submitWrite(lane(objectType), () -> api.removeObjectFields(objectType, objectId, copy));
+    }
+
+    public CompletableFuture<List<String>> getObjectIds(String objectType) {
+        return executor.submitRead(() -> api.getObjectIds(objectType));
+    }
+
+    // ==================== OBJECT QUERIES ====================
+
+    public CompletableFuture<List<String>> findObjectIds(String objectType, ObjectQuery query) {
+        return executor.submitRead(() -> api.findObjectIds(objectType, query));
+    }
+
+    public <T> CompletableFuture<Map<String, T>> findObjects(String objectType, ObjectQuery query, Class<T> expectedType) {
+        return executor.submitRead(() -> api.findObjects(objectType, query, expectedType));
+    }
+
+    public CompletableFuture<Map<String, Map<String, Object>>> findObjectFields(String objectType, ObjectQuery query, String... paths) {
+        String[] copy = paths.clone();
+        return executor.submitRead(() -> api.findObjectFields(objectType, query, copy));
+    }
+
+    public CompletableFuture<Integer> countObjects(String objectType, ObjectQuery query) {
+        return executor.submitRead(() -> api.countObjects(objectType, query));
+    }
+
+    public CompletableFuture<Boolean> createObjectIndex(String objectType, String jsonPath) {
+        return executor.submitWrite(lane(objectType), () -> api.createObjectIndex(objectType, jsonPath));
+    }
+
+    // ==================== PAGINATION ====================
+
+    public <T> CompletableFuture<DatabaseAPI.Page<T>> getObjectPage(String objectType, String afterId, int limit, Class<T> expectedType) {
+        return executor.submitRead(() -> api.getObjectPage(objectType, afterId, limit, expectedType));
+    }
+
+    public CompletableFuture<DatabaseAPI.Page<Map<String, Object>>> getDataPage(String dataType, String afterIdentifier, int limit) {
+        return executor.submitRead(() -> api.getDataPage(dataType, afterIdentifier, limit));
+    }
+
+    // ==================== TAGGING SYSTEM ====================
+
+    public CompletableFuture<Boolean> addTag(String targetType, String targetId, String tagName, String tagValue) {
+        return executor.submitWrite(lane(targetType), () -> api.addTag(targetType, targetId, tagName, tagValue));
+    }
+
+    public CompletableFuture<Boolean> addTag(String targetType, String targetId, String tagName) {
+        return executor.submitWrite(lane(targetType), () -> api.addTag(targetType, targetId, tagName));
+    }
+
+    public CompletableFuture<Boolean> addTagExpiring(String targetType, String targetId, String tagName, String tagValue, Duration ttl) {
+        return executor.submitWrite(lane(targetType), () -> api.addTagExpiring(targetType, targetId, tagName, tagValue, ttl));
+    }
+
+    public CompletableFuture<Map<String, String>> getTags(String targetType, String targetId) {
+        return executor.submitRead(() -> api.getTags(targetType, targetId));
+    }
+
+    public CompletableFuture<List<String>> findByTag(String targetType, String tagName, String tagValue) {
+        return executor.submitRead(() -> api.findByTag(targetType, tagName, tagValue));
+    }
+
+    public CompletableFuture<List<String>> findByTags(String targetType, TagQuery query) {
+        return executor.submitRead(() -> api.findByTags(targetType, query));
+    }
+
+    // ==================== RELATIONSHIPS ====================
+
+    public CompletableFuture<Boolean> link(String parentType, String parentId, String childType, String childId, String relationshipType) {
+        return executor.submitWrite(() -> api.link(parentType, parentId, childType, childId, relationshipType));
+    }
+
+    public CompletableFuture<Boolean> linkBatch(Collection<DatabaseAPI.Relationship> relationships) {
+        List<DatabaseAPI.Relationship> copy = new ArrayList<>(relationships);
+        return executor.submitWrite(() -> api.linkBatch(copy));
+    }
+
+    public CompletableFuture<Boolean> unlink(String parentType, String parentId, String childType, String childId, String relationshipType) {
+        return executor.submitWrite(() -> api.unlink(parentType, parentId, childType, childId, relationshipType));
+    }
+
+    public CompletableFuture<List<DatabaseAPI.Relationship>> getChildren(String parentType, String parentId, String relationshipType) {
+        return executor.submitRead(() -> api.getChildren(parentType, parentId, relationshipType));
+    }
+
+    public CompletableFuture<List<DatabaseAPI.Relationship>> getParents(String childType, String childId, String relationshipType) {
+        return executor.submitRead(() -> api.getParents(childType, childId, relationshipType));
+    }
+
+    public CompletableFuture<List<DatabaseAPI.Relationship>> getDescendants(String type, String id, int maxDepth, String relationshipType) {
+        return executor.submitRead(() -> api.getDescendants(type, id, maxDepth, relationshipType));
+    }
+
+    public CompletableFuture<List<DatabaseAPI.Relationship>> getAncestors(String type, String id, int maxDepth, String relationshipType) {
+        return executor.submitRead(() -> api.getAncestors(type, id, maxDepth, relationshipType));
+    }
+
+    // ==================== CONVENIENCE METHODS ====================
+
+    public CompletableFuture<Boolean> storePlayerData(Player player, String category, Map<String, Object> data) {
+        return storeDataBatch("player_" + category, player.getUniqueId().toString(), data);
+    }
+
+    public CompletableFuture<Map<String, Object>> getPlayerData(Player player, String category) {
+        return getAllData("player_" + category, player.getUniqueId().toString());
+    }
+
+    /**
+     * Entity state is captured on the calling thread, only the write is deferred
+     */
+    public CompletableFuture<Boolean> storeEntityData(Entity entity, Map<String, Object> data) {
+        String entityId = entity.getUniqueId().toString();
+        Map<String, Object> snapshot = api.entityDataSnapshot(entity, data);
+        return executor.submitWrite(lane("entity"), () -> api.storeLocatedData("entity", entityId, snapshot));
+    }
+
+    public CompletableFuture<Boolean> storeHologramData(String hologramId, Location location, List<String> lines, Map<String, Object> properties) {
+        Map<String, Object> snapshot = api.hologramDataSnapshot(location, lines, properties);
+        return executor.submitWrite(lane("hologram"), () -> api.storeLocatedData("hologram", hologramId, snapshot));
+    }
+
+    // ==================== SPATIAL INDEX ====================
+
+    public CompletableFuture<List<String>> findInRadius(String dataType, String world, double x, double y, double z, double radius) {
+        return executor.submitRead(() -> api.findInRadius(dataType, world, x, y, z, radius));
+    }
+
+    public CompletableFuture<List<String>> findInBox(String dataType, String world, double minX, double minY, double minZ,
+                                                     double maxX, double maxY, double maxZ) {
+        return executor.submitRead(() -> api.findInBox(dataType, world, minX, minY, minZ, maxX, maxY, maxZ));
+    }
+
+    public CompletableFuture<List<String>> findInChunk(String dataType, String world, int chunkX, int chunkZ) {
+        return executor.submitRead(() -> api.findInChunk(dataType, world, chunkX, chunkZ));
+    }
+
+    // ==================== UTILITY METHODS ====================
+
+    public CompletableFuture<Boolean> deleteData(String dataType, String identifier) {
+        return executor.submitWrite(lane(dataType), () -> api.deleteData(dataType, identifier));
+    }
+
+    public CompletableFuture<Boolean> deleteDataKey(String dataType, String identifier, String key) {
+        return executor.submitWrite(lane(dataType), () -> api.deleteDataKey(dataType, identifier, key));
+    }
+
+    /**
+     * Execute custom SQL update, failures complete the future exceptionally
+     */
+    public CompletableFuture<Integer> executeUpdate(String sql, Object... params) {
+        return executor.submitWrite(() -> {
+            try {
+                return api.executeUpdate(sql, params);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Run any read-only sequence of API calls on the database executor
+     */
+    public <T> CompletableFuture<T> read(Function<DatabaseAPI, T> operation) {
+        return executor.submitRead(() -> operation.apply(api));
+    }
+
+    /**
+     * Run any sequence of API calls that writes on the database executor
+     */
+    public <T> CompletableFuture<T> write(Function<DatabaseAPI, T> operation) {
+        return executor.submitWrite(() -> operation.apply(api));
+    }
+
+    /**
+     * Writes to one type only queue behind earlier writes to the same shard
+     */
+    private int lane(String type) {
+        return api.getShardRouter().shardIndex(type);
+    }
+
+    // ==================== MAIN THREAD HELPERS ====================
+
+    /**
+     * Executor that runs tasks on the server main thread
+     */
+    public Executor mainThread() {
+        return mainThreadExecutor;
+    }
+
+    /**
+     * Consume the result on the main thread once the future completes successfully
+     */
+    public <T> CompletableFuture<Void> thenSync(CompletableFuture<T> future, Consumer<? super T> action) {
+        return future.thenAcceptAsync(action, mainThreadExecutor);
+    }
+
+    /**
+     * Handle the result or failure on the main thread
+     */
+    public <T> CompletableFuture<T> whenCompleteSync(CompletableFuture<T> future, BiConsumer<? super T, ? super Throwable> action) {
+        return future.whenCompleteAsync(action, mainThreadExecutor);
+    }
+}
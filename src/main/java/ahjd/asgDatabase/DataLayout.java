@@ -0,0 +1,218 @@
+package ahjd.asgDatabase;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How one database file stores universal data: the original data_storage table with TEXT columns, or the compact
+ * WITHOUT ROWID data_compact table keyed by interned type and key ids, with UUID identifiers stored as 16-byte BLOBs.
+ * Both use the same column names, so queries only differ in the table name and how type, identifier and key are bound.
+ */
+public class DataLayout {
+
+    static final String LEGACY_TABLE = "data_storage";
+    static final String COMPACT_TABLE = "data_compact";
+
+    // A canonical lowercase UUID in SQL, matching isCanonicalUuid
+    private static final String UUID_GLOB = "'" + "[0-9a-f]".repeat(8) + "-" + "[0-9a-f]".repeat(4) + "-"
+            + "[0-9a-f]".repeat(4) + "-" + "[0-9a-f]".repeat(4) + "-" + "[0-9a-f]".repeat(12) + "'";
+    // Id bound for names that were never stored; interned ids start at 1
+    private static final long UNKNOWN_NAME = -1;
+
+    private final DatabaseConnection databaseConnection;
+    private final boolean compact;
+    // data_names rows are never removed or renumbered, so a committed id stays valid
+    private final Map<String, Long> ids = new ConcurrentHashMap<>();
+    private final Map<Long, String> names = new ConcurrentHashMap<>();
+    private final Map<String, String> statements = new ConcurrentHashMap<>();
+
+    DataLayout(DatabaseConnection databaseConnection, boolean compact) {
+        this.databaseConnection = databaseConnection;
+        this.compact = compact;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Table holding the rows; in the compact layout data_storage is a read/write view over it for custom SQL
+     */
+    public String table() {
+        return compact ? COMPACT_TABLE : LEGACY_TABLE;
+    }
+
+    /**
+     * A statement written against data_storage, pointed at table()
+     */
+    String sql(String sql) {
+        if (!compact) return sql;
+        return statements.computeIfAbsent(sql, legacy -> legacy.replace(LEGACY_TABLE, COMPACT_TABLE));
+    }
+
+    // ==================== BINDING ====================
+
+    /**
+     * Bind a data type or key; create interns names not seen before (writes only, needs the writer connection)
+     */
+    void bindName(Connection conn, PreparedStatement stmt, int index, String name, boolean create) throws SQLException {
+        if (!compact) {
+            stmt.setString(index, name);
+            return;
+        }
+        Long id = ids.get(name);
+        stmt.setLong(index, id != null ? id : resolve(conn, name, create));
+    }
+
+    /**
+     * A data type or key as an SQL literal, for statements that have to repeat the WHERE clause of a partial index
+     */
+    String nameLiteral(Connection conn, String name, boolean create) throws SQLException {
+        if (!compact) return ObjectQuery.literal(name);
+        Long id = ids.get(name);
+        return Long.toString(id != null ? id : resolve(conn, name, create));
+    }
+
+    void bindIdentifier(PreparedStatement stmt, int index, String identifier) throws SQLException {
+        Object encoded = compact ? encodeIdentifier(identifier) : identifier;
+        if (encoded instanceof byte[] bytes) {
+            stmt.setBytes(index, bytes);
+        } else {
+            stmt.setString(index, identifier);
+        }
+    }
+
+    /**
+     * Intern a data type and its keys ahead of a transaction, so statements inside it find them in memory
+     */
+    void intern(Connection conn, String dataType, Collection<String> keys) throws SQLException {
+        if (!compact) return;
+        if (!ids.containsKey(dataType)) resolve(conn, dataType, true);
+        for (String key : keys) {
+            if (!ids.containsKey(key)) resolve(conn, key, true);
+        }
+    }
+
+    private long resolve(Connection conn, String name, boolean create) throws SQLException {
+        PreparedStatement stmt = databaseConnection.prepareCached(conn, "SELECT id FROM data_names WHERE name = ?");
+        stmt.setString(1, name);
+        Long id = null;
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) id = rs.getLong(1);
+        }
+        if (id == null) {
+            if (!create) return UNKNOWN_NAME;
+            stmt = databaseConnection.prepareCached(conn, "INSERT INTO data_names (name) VALUES (?) RETURNING id");
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                id = rs.getLong(1);
+            }
+        }
+        remember(conn, name, id);
+        return id;
+    }
+
+    // ==================== READING ====================
+
+    /**
+     * Read a data type or key column of the current row
+     */
+    String getName(ResultSet rs, String column) throws SQLException {
+        if (!compact) return rs.getString(column);
+        long id = rs.getLong(column);
+        String name = names.get(id);
+        if (name != null) return name;
+
+        // Not cached: the row may come from a short-lived cursor connection
+        Connection conn = rs.getStatement().getConnection();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM data_names WHERE id = ?")) {
+            stmt.setLong(1, id);
+            try (ResultSet found = stmt.executeQuery()) {
+                if (!found.next()) throw new SQLException("Unknown data name id " + id);
+                name = found.getString(1);
+            }
+        }
+        remember(conn, name, id);
+        return name;
+    }
+
+    String getIdentifier(ResultSet rs, String column) throws SQLException {
+        if (!compact) return rs.getString(column);
+        return decodeIdentifier(rs.getObject(column));
+    }
+
+    private void remember(Connection conn, String name, long id) throws SQLException {
+        // A name interned inside an open write transaction disappears again if it rolls back
+        if (databaseConnection.isWriteConnection(conn) && !conn.getAutoCommit()) return;
+        ids.put(name, id);
+        names.put(id, name);
+    }
+
+    /**
+     * The order SQLite sorts the identifier column in. The compact layout puts every text identifier before every
+     * UUID BLOB; the 16 bytes of a UUID sort like its lowercase string.
+     */
+    Comparator<String> identifierOrder() {
+        if (!compact) return Comparator.naturalOrder();
+        return Comparator.comparing(DataLayout::isCanonicalUuid).thenComparing(Comparator.naturalOrder());
+    }
+
+    // ==================== IDENTIFIER ENCODING ====================
+
+    /**
+     * A canonical lowercase UUID becomes its 16 bytes, any other identifier stays text
+     */
+    static Object encodeIdentifier(String identifier) {
+        if (!isCanonicalUuid(identifier)) return identifier;
+        UUID uuid = UUID.fromString(identifier);
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    static String decodeIdentifier(Object stored) {
+        if (stored instanceof byte[] bytes && bytes.length == 16) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new UUID(buffer.getLong(), buffer.getLong()).toString();
+        }
+        return stored == null ? null : stored.toString();
+    }
+
+    /**
+     * Only identifiers that decode back to the exact same string are stored as BLOBs
+     */
+    static boolean isCanonicalUuid(String identifier) {
+        if (identifier == null || identifier.length() != 36) return false;
+        for (int i = 0; i < 36; i++) {
+            char c = identifier.charAt(i);
+            boolean valid = i == 8 || i == 13 || i == 18 || i == 23 ? c == '-' : (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+            if (!valid) return false;
+        }
+        return true;
+    }
+
+    /**
+     * SQL counterpart of encodeIdentifier for the migrator and the data_storage view
+     */
+    static String encodeIdentifierSql(String expression) {
+        return "CASE WHEN " + expression + " GLOB " + UUID_GLOB + " THEN unhex(replace(" + expression + ", '-', '')) ELSE "
+                + expression + " END";
+    }
+
+    /**
+     * SQL counterpart of decodeIdentifier
+     */
+    static String decodeIdentifierSql(String expression) {
+        String hex = "hex(" + expression + ")";
+        return "CASE WHEN typeof(" + expression + ") = 'blob' AND length(" + expression + ") = 16 THEN lower(substr(" + hex
+                + ", 1, 8) || '-' || substr(" + hex + ", 9, 4) || '-' || substr(" + hex + ", 13, 4) || '-' || substr(" + hex
+                + ", 17, 4) || '-' || substr(" + hex + ", 21)) ELSE " + expression + " END";
+    }
+}
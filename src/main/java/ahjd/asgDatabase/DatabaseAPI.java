@@ -7,25 +7,132 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.lang.reflect.Type;
 
 public class DatabaseAPI {
 
+    // Rows whose expires_at (epoch millis) has passed are treated as absent until the sweeper deletes them
+    static final String NOT_EXPIRED = "(expires_at IS NULL OR expires_at > unixepoch('subsec') * 1000)";
+
+    // Updates in place; INSERT OR REPLACE would delete and re-insert the row and its index entries
+    private static final String UPSERT_DATA_SQL = """
+        INSERT INTO data_storage (data_type, identifier, data_key, data_value, value_num, value_type, metadata, expires_at, updated_at)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+        ON CONFLICT(data_type, identifier, data_key) DO UPDATE SET
+            data_value = excluded.data_value, value_num = excluded.value_num, value_type = excluded.value_type,
+            metadata = excluded.metadata, expires_at = excluded.expires_at, updated_at = excluded.updated_at
+    """;
+    // Adds ?4 to a numeric key (missing keys start at 0); rows holding non-numeric values are left alone and return nothing
+    private static final String INCREMENT_SQL = """
+        INSERT INTO data_storage (data_type, identifier, data_key, value_num, value_type, updated_at)
+        VALUES (?1, ?2, ?3, ?4, ?5, CURRENT_TIMESTAMP)
+        ON CONFLICT(data_type, identifier, data_key) DO UPDATE SET
+            value_num = COALESCE(value_num, CAST(data_value AS NUMERIC), 0) + excluded.value_num,
+            data_value = NULL,
+            value_type = CASE
+                WHEN typeof(COALESCE(value_num, CAST(data_value AS NUMERIC), 0) + excluded.value_num) = 'real' THEN 'DOUBLE'
+                WHEN value_type = 'DOUBLE' THEN 'DOUBLE'
+                WHEN value_type IN ('INTEGER', 'NULL') AND excluded.value_type = 'INTEGER'
+                     AND COALESCE(value_num, CAST(data_value AS NUMERIC), 0) + excluded.value_num BETWEEN -2147483648 AND 2147483647
+                    THEN 'INTEGER'
+                ELSE 'LONG'
+            END,
+            updated_at = excluded.updated_at
+        WHERE data_storage.value_type IN ('INTEGER', 'LONG', 'DOUBLE', 'NULL')
+        RETURNING value_num, value_type
+    """;
+    // Every write bumps version, which storeObjectIfVersion compares against
+    private static final String UPSERT_OBJECT_SQL = """
+        INSERT INTO object_storage (object_type, object_id, object_data, data_format, expires_at, updated_at)
+        VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+        ON CONFLICT (object_type, object_id) DO UPDATE SET object_data = excluded.object_data, data_format = excluded.data_format,
+            expires_at = excluded.expires_at, updated_at = CURRENT_TIMESTAMP, version = version + 1
+    """;
+    private static final String UPSERT_TAG_SQL = """
+        INSERT OR REPLACE INTO data_tags (target_type, target_id, tag_name, tag_value, expires_at)
+        VALUES (?, ?, ?, ?, ?)
+    """;
+    private static final String LINK_SQL = """
+        INSERT INTO data_relationships (parent_type, parent_id, child_type, child_id, relationship_type, metadata)
+        VALUES (?, ?, ?, ?, ?, ?)
+        ON CONFLICT(parent_type, parent_id, child_type, child_id, relationship_type) DO UPDATE SET metadata = excluded.metadata
+    """;
+    // Compact JSON compressed with gzip and stored as a BLOB
+    private static final String FORMAT_JSON_GZIP = "JSON_GZIP";
+    // Compressed objects decompressed per transaction when a type is first queried
+    private static final int INFLATE_BATCH_SIZE = 500;
+    // R*Tree search within one (data_type, world) space; ?2..?7 are minX, maxX, minY, maxY, minZ, maxZ
+    private static final String SPATIAL_BOX_SQL = """
+        SELECT identifier FROM spatial_index
+        WHERE min_space >= ?1 AND max_space <= ?1
+          AND max_x >= ?2 AND min_x <= ?3 AND max_y >= ?4 AND min_y <= ?5 AND max_z >= ?6 AND min_z <= ?7
+    """;
+    private static final String[] EXPIRING_TABLES = {"data_storage", "object_storage", "data_tags"};
+    private static final String PURGE_COMPACT_SQL = """
+        DELETE FROM data_compact WHERE (data_type, identifier, data_key) IN (
+            SELECT data_type, identifier, data_key FROM data_compact WHERE expires_at <= unixepoch('subsec') * 1000 LIMIT ?
+        )
+    """;
+    // IN lists are padded to one of these sizes so only a handful of statements end up in the cache
+    private static final int[] IN_LIST_SIZES = {1, 8, 32, 128, 512};
+
+    private final ShardRouter shards;
+    // The primary shard: relationships and custom SQL always run here
     private final DatabaseConnection dbConnection;
     private final Logger logger;
     private final Gson gson;
+    // One buffer per shard, so a flush only ever holds the write lock of its own shard
+    private volatile WriteBehindBuffer[] writeBehind;
+    private volatile LruCache<CacheKey, CachedData> dataCache;
+    private volatile LruCache<CacheKey, StoredObject> objectCache;
+    private volatile boolean shareCachedObjects;
+    private volatile int compressionThreshold;
+    private final DatabaseMetrics metrics;
+    // spatial_spaces rows are never removed, so resolved ids stay valid
+    private final Map<CacheKey, Long> spatialSpaces = new ConcurrentHashMap<>();
+    // Object types read or edited with JSON functions; their payloads are never compressed, see prepareObjectQueries.
+    // Recorded in object_json_types once fully decompressed, so a restart does not compress them again
+    private final Set<String> jsonQueryTypes = ConcurrentHashMap.newKeySet();
+    // Completes with true once a type's compressed objects are stored as plain JSON; queries wait for it
+    private final Map<String, CompletableFuture<Boolean>> jsonQueryReady = new ConcurrentHashMap<>();
+    // In-memory leaderboards by (dataType, key)
+    private final Map<CacheKey, Leaderboard> leaderboards = new ConcurrentHashMap<>();
 
     public DatabaseAPI(DatabaseConnection dbConnection) {
-        this.dbConnection = dbConnection;
+        this(ShardRouter.single(dbConnection));
+    }
+
+    /**
+     * Spread types over several database files; every method keeps working the same way
+     */
+    public DatabaseAPI(ShardRouter shards) {
+        this.shards = shards;
+        this.dbConnection = shards.primary();
         this.logger = Logger.getLogger("DatabaseAPI");
+        this.metrics = new DatabaseMetrics(logger);
         this.gson = new GsonBuilder()
-                .setPrettyPrinting()
                 .serializeNulls()
                 .create();
+        loadJsonQueryTypes();
     }
 
     // ==================== UNIVERSAL DATA STORAGE ====================
@@ -41,20 +148,39 @@ public class DatabaseAPI {
      * Store data with metadata
      */
     public boolean storeData(String dataType, String identifier, String key, Object value, String metadata) {
-        String sql = """
-            INSERT OR REPLACE INTO data_storage (data_type, identifier, data_key, data_value, value_type, metadata, updated_at)
-            VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
-        """;
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        if (buffer != null) {
+            buffer.addData(new WriteBehindBuffer.DataWrite(dataType, identifier, key, encodeValue(value), getValueType(value), metadata));
+            trackScore(dataType, identifier, key, value, null);
+            return true;
+        }
+        return writeData(dataType, identifier, key, value, metadata, null);
+    }
 
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, dataType);
-            stmt.setString(2, identifier);
-            stmt.setString(3, key);
-            stmt.setString(4, serializeValue(value));
-            stmt.setString(5, getValueType(value));
-            stmt.setString(6, metadata);
+    /**
+     * Store data that reads treat as absent once ttl has passed (cooldowns, temporary bans, tokens).
+     * Expiring writes skip the write-behind buffer; storing the key again without a ttl makes it permanent.
+     */
+    public boolean storeDataExpiring(String dataType, String identifier, String key, Object value, Duration ttl) {
+        return writeData(dataType, identifier, key, value, null, expiresAt(ttl));
+    }
 
-            return stmt.executeUpdate() > 0;
+    private boolean writeData(String dataType, String identifier, String key, Object value, String metadata, Long expiresAt) {
+        try {
+            return timedWrite("storeData", dataType, conn -> {
+                try {
+                    flushPendingKey(dataType, identifier, key);
+                    DataLayout layout = layout(dataType);
+                    PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(UPSERT_DATA_SQL));
+                    bindDataRow(conn, layout, stmt, dataType, identifier, key, encodeValue(value), getValueType(value), metadata, expiresAt);
+
+                    boolean stored = stmt.executeUpdate() > 0;
+                    trackScore(dataType, identifier, key, value, expiresAt);
+                    return stored;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Failed to store data", e);
             return false;
@@ -74,310 +200,2936 @@ public class DatabaseAPI {
     public boolean storeDataBatch(String dataType, String identifier, Map<String, Object> data, String metadata) {
         if (data == null || data.isEmpty()) return true;
 
-        String sql = """
-            INSERT OR REPLACE INTO data_storage (data_type, identifier, data_key, data_value, value_type, metadata, updated_at)
-            VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
-        """;
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        if (buffer != null) {
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                buffer.addData(new WriteBehindBuffer.DataWrite(dataType, identifier, entry.getKey(),
+                        encodeValue(entry.getValue()), getValueType(entry.getValue()), metadata));
+                trackScore(dataType, identifier, entry.getKey(), entry.getValue(), null);
+            }
+            return true;
+        }
 
-        Connection conn = dbConnection.getConnection();
         try {
-            conn.setAutoCommit(false);
-
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                for (Map.Entry<String, Object> entry : data.entrySet()) {
-                    stmt.setString(1, dataType);
-                    stmt.setString(2, identifier);
-                    stmt.setString(3, entry.getKey());
-                    stmt.setString(4, serializeValue(entry.getValue()));
-                    stmt.setString(5, getValueType(entry.getValue()));
-                    stmt.setString(6, metadata);
-                    stmt.addBatch();
+            return timedWrite("storeDataBatch", dataType, conn -> {
+                try {
+                    DataLayout layout = layout(dataType);
+                    layout.intern(conn, dataType, data.keySet());
+                    inTransaction(conn, () -> upsertDataRows(conn, layout, dataType, identifier, data, metadata));
+                    data.forEach((key, value) -> trackScore(dataType, identifier, key, value, null));
+                    return true;
+                } finally {
+                    invalidateData(dataType, identifier);
                 }
-                stmt.executeBatch();
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to store data batch", e);
+            return false;
+        }
+    }
+
+    private int[] upsertDataRows(Connection conn, DataLayout layout, String dataType, String identifier, Map<String, Object> data,
+                                 String metadata) throws SQLException {
+        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(UPSERT_DATA_SQL));
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            bindDataRow(conn, layout, stmt, dataType, identifier, entry.getKey(),
+                    encodeValue(entry.getValue()), getValueType(entry.getValue()), metadata, null);
+            stmt.addBatch();
+        }
+        return stmt.executeBatch();
+    }
+
+    /**
+     * Get data with automatic type conversion
+     */
+    public <T> T getData(String dataType, String identifier, String key, Class<T> expectedType) {
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        if (buffer != null) {
+            WriteBehindBuffer.DataWrite pending = buffer.getData(dataType, identifier, key);
+            if (pending != null) {
+                return deserializeValue(pending.value(), pending.valueType(), expectedType);
             }
+        }
 
-            conn.commit();
-            return true;
+        if (dataCache != null) {
+            CachedData cached = loadCachedData(dataType, identifier);
+            if (cached != null) {
+                StoredValue stored = cached.rows().get(key);
+                return stored == null ? null : deserializeValue(stored.value(), stored.valueType(), expectedType);
+            }
+        }
+
+        String sql = "SELECT data_value, value_num, value_type FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ? AND "
+                + NOT_EXPIRED;
 
+        try {
+            return timedRead("getData", dataType, conn -> {
+                DataLayout layout = layout(dataType);
+                PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+                bindDataKey(conn, layout, stmt, dataType, identifier, key, false);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        String valueType = rs.getString("value_type");
+                        return deserializeValue(readValue(rs, valueType), valueType, expectedType);
+                    }
+                    return null;
+                }
+            });
         } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve data", e);
+        }
+        return null;
+    }
+
+    /**
+     * Get data as string (backward compatibility)
+     */
+    public String getData(String dataType, String identifier, String key) {
+        return getData(dataType, identifier, key, String.class);
+    }
+
+    /**
+     * Get all data for a specific type and identifier
+     */
+    public Map<String, Object> getAllData(String dataType, String identifier) {
+        Map<String, Object> data = new HashMap<>();
+
+        // Snapshot pending writes before reading so a concurrent flush cannot hide them
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        List<WriteBehindBuffer.DataWrite> pending = buffer != null ? buffer.getAllData(dataType, identifier) : List.of();
+
+        CachedData cached = dataCache != null ? loadCachedData(dataType, identifier) : null;
+        if (cached != null) {
+            data.putAll(decodedCopy(cached));
+        } else {
             try {
-                conn.rollback();
-            } catch (SQLException rollbackEx) {
-                logger.log(Level.SEVERE, "Failed to rollback batch operation", rollbackEx);
+                data.putAll(decodedCopy(readAllData(dataType, identifier)));
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Failed to retrieve all data", e);
             }
-            logger.log(Level.SEVERE, "Failed to store data batch", e);
-            return false;
-        } finally {
+        }
+
+        for (WriteBehindBuffer.DataWrite write : pending) {
+            data.put(write.key(), deserializeValue(write.value(), write.valueType(), Object.class));
+        }
+        return data;
+    }
+
+    /**
+     * Get all data of one type for many identifiers in a few queries; every requested identifier is present in the result
+     */
+    public Map<String, Map<String, Object>> getAllDataBulk(String dataType, Collection<String> identifiers) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        if (identifiers == null || identifiers.isEmpty()) return result;
+        identifiers.forEach(identifier -> result.put(identifier, new HashMap<>()));
+
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        Map<String, List<WriteBehindBuffer.DataWrite>> pending = new HashMap<>();
+        if (buffer != null) {
+            for (String identifier : result.keySet()) {
+                pending.put(identifier, buffer.getAllData(dataType, identifier));
+            }
+        }
+
+        // Serve what the cache already has and only query the rest
+        LruCache<CacheKey, CachedData> cache = dataCache;
+        List<String> missing = new ArrayList<>();
+        Map<String, Long> stamps = new HashMap<>();
+        for (String identifier : result.keySet()) {
+            CacheKey cacheKey = new CacheKey(dataType, identifier);
+            CachedData cached = cache != null ? cache.get(cacheKey) : null;
+            if (cached != null) {
+                result.get(identifier).putAll(decodedCopy(cached));
+            } else {
+                missing.add(identifier);
+                if (cache != null) stamps.put(identifier, cache.stamp(cacheKey));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            String sql = "SELECT identifier, data_key, data_value, value_num, value_type, expires_at FROM data_storage WHERE data_type = ? AND identifier IN (%s) AND "
+                    + NOT_EXPIRED;
             try {
-                conn.setAutoCommit(true);
+                Map<String, Map<String, StoredValue>> rows = new HashMap<>();
+                Map<String, Long> expiries = new HashMap<>();
+                timedRead("getAllDataBulk", dataType, conn -> inTransaction(conn, () -> {
+                    missing.forEach(identifier -> rows.put(identifier, new HashMap<>()));
+                    DataLayout layout = layout(dataType);
+                    queryInChunks(conn, layout, layout.sql(sql), dataType, missing, rs -> {
+                        while (rs.next()) {
+                            String identifier = layout.getIdentifier(rs, "identifier");
+                            String valueType = rs.getString("value_type");
+                            rows.get(identifier).put(layout.getName(rs, "data_key"), new StoredValue(readValue(rs, valueType), valueType));
+                            long expiresAt = rs.getLong("expires_at");
+                            if (!rs.wasNull()) expiries.merge(identifier, expiresAt, Math::min);
+                        }
+                        return null;
+                    });
+                    return rows;
+                }));
+
+                rows.forEach((identifier, values) -> {
+                    CachedData loaded = toCachedData(values, expiries.getOrDefault(identifier, Long.MAX_VALUE));
+                    result.get(identifier).putAll(decodedCopy(loaded));
+                    if (cache != null) cache.put(new CacheKey(dataType, identifier), loaded, stamps.get(identifier), loaded.expiresAt());
+                });
             } catch (SQLException e) {
-                logger.log(Level.WARNING, "Failed to reset auto-commit", e);
+                logger.log(Level.SEVERE, "Failed to retrieve bulk data", e);
             }
         }
+
+        pending.forEach((identifier, writes) -> writes.forEach(write ->
+                result.get(identifier).put(write.key(), deserializeValue(write.value(), write.valueType(), Object.class))));
+        return result;
     }
 
+    // ==================== ATOMIC UPDATES ====================
+
     /**
-     * Get data with automatic type conversion
+     * Atomically add delta to a numeric key in one statement and return the new value.
+     * A missing key starts at 0; returns null if the key holds a non-numeric value or the update failed.
+     * Use the double overload for keys holding fractional values, this one truncates the returned value.
      */
-    public <T> T getData(String dataType, String identifier, String key, Class<T> expectedType) {
-        String sql = "SELECT data_value, value_type FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ?";
+    public Long increment(String dataType, String identifier, String key, long delta) {
+        Number result = incrementNumber(dataType, identifier, key, delta);
+        return result == null ? null : result.longValue();
+    }
 
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, dataType);
-            stmt.setString(2, identifier);
-            stmt.setString(3, key);
+    /**
+     * Atomically add a fractional delta to a numeric key and return the new value
+     */
+    public Double increment(String dataType, String identifier, String key, double delta) {
+        if (!Double.isFinite(delta)) return null;
+        Number result = incrementNumber(dataType, identifier, key, delta);
+        return result == null ? null : result.doubleValue();
+    }
 
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                String value = rs.getString("data_value");
-                String valueType = rs.getString("value_type");
-                return deserializeValue(value, valueType, expectedType);
+    /**
+     * Apply many deltas for one identifier in a single transaction; returns the new values, or an empty map on failure
+     */
+    public Map<String, Number> incrementBatch(String dataType, String identifier, Map<String, ? extends Number> deltas) {
+        if (identifier == null || deltas == null || deltas.isEmpty()) return Map.of();
+        Map<String, Map<String, Number>> result = incrementBatch(dataType, Map.of(identifier, deltas));
+        return result.getOrDefault(identifier, Map.of());
+    }
+
+    /**
+     * Apply deltas for many identifiers (e.g. end-of-match stats) in a single transaction.
+     * Either every delta is applied or none is; keys holding non-numeric values are skipped and missing from the result.
+     */
+    public Map<String, Map<String, Number>> incrementBatch(String dataType, Map<String, ? extends Map<String, ? extends Number>> deltas) {
+        if (deltas == null || deltas.isEmpty()) return Map.of();
+
+        try {
+            return timedWrite("incrementBatch", dataType, conn -> {
+                try {
+                    flushPendingKeys(dataType, deltas);
+                    DataLayout layout = layout(dataType);
+                    Set<String> keys = new HashSet<>();
+                    deltas.values().forEach(values -> keys.addAll(values.keySet()));
+                    layout.intern(conn, dataType, keys);
+                    Map<String, Map<String, Number>> applied = inTransaction(conn, () -> {
+                        Map<String, Map<String, Number>> result = new LinkedHashMap<>();
+                        for (Map.Entry<String, ? extends Map<String, ? extends Number>> entry : deltas.entrySet()) {
+                            Map<String, Number> values = new LinkedHashMap<>();
+                            for (Map.Entry<String, ? extends Number> delta : entry.getValue().entrySet()) {
+                                Number value = executeIncrement(conn, layout, dataType, entry.getKey(), delta.getKey(), delta.getValue());
+                                if (value != null) values.put(delta.getKey(), value);
+                            }
+                            result.put(entry.getKey(), values);
+                        }
+                        return result;
+                    });
+                    applied.forEach((identifier, values) ->
+                            values.forEach((key, value) -> trackScore(dataType, identifier, key, value, null)));
+                    return applied;
+                } finally {
+                    deltas.keySet().forEach(identifier -> invalidateData(dataType, identifier));
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to apply increment batch", e);
+            return Map.of();
+        }
+    }
+
+    /**
+     * Store newValue only if the key currently holds expected (null = the key must not exist); existing metadata is kept
+     */
+    public boolean compareAndSet(String dataType, String identifier, String key, Object expected, Object newValue) {
+        Object encodedExpected = expected == null ? null : encodeValue(expected);
+        Object encoded = encodeValue(newValue);
+        String valueType = getValueType(newValue);
+
+        String sql;
+        if (encodedExpected == null) {
+            sql = """
+                INSERT INTO data_storage (data_type, identifier, data_key, data_value, value_num, value_type, metadata, expires_at, updated_at)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+                ON CONFLICT DO NOTHING
+            """;
+        } else if (encodedExpected instanceof String) {
+            sql = """
+                UPDATE data_storage SET data_value = ?4, value_num = ?5, value_type = ?6, expires_at = ?8, updated_at = CURRENT_TIMESTAMP
+                WHERE data_type = ?1 AND identifier = ?2 AND data_key = ?3 AND value_num IS NULL AND data_value = ?9
+            """;
+        } else {
+            sql = """
+                UPDATE data_storage SET data_value = ?4, value_num = ?5, value_type = ?6, expires_at = ?8, updated_at = CURRENT_TIMESTAMP
+                WHERE data_type = ?1 AND identifier = ?2 AND data_key = ?3 AND value_num = ?9
+            """;
+        }
+
+        try {
+            return timedWrite("compareAndSet", dataType, conn -> {
+                try {
+                    flushPendingKey(dataType, identifier, key);
+                    DataLayout layout = layout(dataType);
+                    deleteExpiredKey(conn, layout, dataType, identifier, key);
+                    PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+                    bindDataRow(conn, layout, stmt, dataType, identifier, key, encoded, valueType, null, null);
+                    if (encodedExpected != null) {
+                        stmt.setObject(9, encodedExpected instanceof Boolean flag ? (flag ? 1 : 0) : encodedExpected);
+                    }
+                    boolean swapped = stmt.executeUpdate() > 0;
+                    if (swapped) trackScore(dataType, identifier, key, newValue, null);
+                    return swapped;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to compare and set data", e);
+            return false;
+        }
+    }
+
+    /**
+     * Read a key, apply updater and store the result as one atomic step; returns the stored value.
+     * The updater receives null for a missing key and runs while the write lock is held, so keep it short.
+     * Existing metadata is kept.
+     */
+    public <T> T updateData(String dataType, String identifier, String key, Class<T> expectedType, UnaryOperator<T> updater) {
+        String sql = "SELECT data_value, value_num, value_type, metadata FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ? AND "
+                + NOT_EXPIRED;
+
+        try {
+            return timedWrite("updateData", dataType, conn -> {
+                try {
+                    flushPendingKey(dataType, identifier, key);
+                    DataLayout layout = layout(dataType);
+                    layout.intern(conn, dataType, List.of(key));
+                    T stored = inTransaction(conn, () -> {
+                        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+                        bindDataKey(conn, layout, stmt, dataType, identifier, key, false);
+
+                        T current = null;
+                        String metadata = null;
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            if (rs.next()) {
+                                String valueType = rs.getString("value_type");
+                                current = deserializeValue(readValue(rs, valueType), valueType, expectedType);
+                                metadata = rs.getString("metadata");
+                            }
+                        }
+
+                        T updated = updater.apply(current);
+                        stmt = shards.forType(dataType).prepareCached(conn, layout.sql(UPSERT_DATA_SQL));
+                        bindDataRow(conn, layout, stmt, dataType, identifier, key, encodeValue(updated), getValueType(updated), metadata, null);
+                        stmt.executeUpdate();
+                        return updated;
+                    });
+                    trackScore(dataType, identifier, key, stored, null);
+                    return stored;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to update data", e);
+            return null;
+        }
+    }
+
+    private Number incrementNumber(String dataType, String identifier, String key, Number delta) {
+        try {
+            return timedWrite("increment", dataType, conn -> {
+                try {
+                    flushPendingKey(dataType, identifier, key);
+                    Number value = executeIncrement(conn, layout(dataType), dataType, identifier, key, delta);
+                    if (value != null) trackScore(dataType, identifier, key, value, null);
+                    return value;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to increment data", e);
+            return null;
+        }
+    }
+
+    private Number executeIncrement(Connection conn, DataLayout layout, String dataType, String identifier, String key,
+                                    Number delta) throws SQLException {
+        // An expired counter restarts at 0 rather than continuing from its old value
+        deleteExpiredKey(conn, layout, dataType, identifier, key);
+        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(INCREMENT_SQL));
+        bindDataKey(conn, layout, stmt, dataType, identifier, key, true);
+        if (delta instanceof Double || delta instanceof Float) {
+            stmt.setDouble(4, delta.doubleValue());
+            stmt.setString(5, "DOUBLE");
+        } else {
+            long value = delta.longValue();
+            stmt.setLong(4, value);
+            stmt.setString(5, value == (int) value ? "INTEGER" : "LONG");
+        }
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                logger.warning("Cannot increment non-numeric data " + dataType + "/" + identifier + "/" + key);
+                return null;
+            }
+            return (Number) readValue(rs, rs.getString("value_type"));
+        }
+    }
+
+    private static Long expiresAt(Duration ttl) {
+        return ttl == null ? null : System.currentTimeMillis() + Math.max(0, ttl.toMillis());
+    }
+
+    private void deleteExpiredKey(Connection conn, DataLayout layout, String dataType, String identifier, String key) throws SQLException {
+        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(
+                "DELETE FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ? AND expires_at <= unixepoch('subsec') * 1000"));
+        bindDataKey(conn, layout, stmt, dataType, identifier, key, false);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Commit a buffered write for a key before changing it in place, so the later flush cannot overwrite the result
+     * (caller must hold the write connection)
+     */
+    private void flushPendingKey(String dataType, String identifier, String key) {
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        if (buffer != null && buffer.getData(dataType, identifier, key) != null) {
+            flush(dataType);
+        }
+    }
+
+    private void flushPendingKeys(String dataType, Map<String, ? extends Map<String, ?>> keys) {
+        WriteBehindBuffer buffer = writeBehind(dataType);
+        if (buffer == null) return;
+        for (Map.Entry<String, ? extends Map<String, ?>> entry : keys.entrySet()) {
+            for (String key : entry.getValue().keySet()) {
+                if (buffer.getData(dataType, entry.getKey(), key) != null) {
+                    flush(dataType);
+                    return;
+                }
             }
+        }
+    }
+
+    // ==================== LEADERBOARDS ====================
+
+    /**
+     * The n identifiers with the highest numeric value of key, best first; equal values are ordered by identifier.
+     * Served from memory when an enabled leaderboard holds n entries, otherwise by the leaderboard index if there is one.
+     */
+    public List<Leaderboard.Entry> getTopN(String dataType, String key, int n) {
+        if (n <= 0) return new ArrayList<>();
+
+        Leaderboard board = leaderboards.get(new CacheKey(dataType, key));
+        if (board != null && n <= board.capacity()) {
+            List<Leaderboard.Entry> top = board.top(n);
+            if (top != null) return top;
+            List<Leaderboard.Entry> loaded = loadLeaderboard(dataType, key, board);
+            return new ArrayList<>(loaded.subList(0, Math.min(n, loaded.size())));
+        }
+
+        try {
+            return readTopN("getTopN", dataType, key, n).entries();
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to retrieve data", e);
+            logger.log(Level.SEVERE, "Failed to read the top " + n + " of " + dataType + "/" + key, e);
+            return new ArrayList<>();
         }
-        return null;
     }
 
     /**
-     * Get data as string (backward compatibility)
+     * Position of identifier in getTopN order, starting at 1; 0 if it has no numeric value for key
+     */
+    public int getRank(String dataType, String identifier, String key) {
+        Leaderboard board = leaderboards.get(new CacheKey(dataType, key));
+        if (board != null) {
+            if (board.isStale()) loadLeaderboard(dataType, key, board);
+            Integer rank = board.rank(identifier);
+            if (rank != null) return rank;
+        }
+
+        String sql = "SELECT value_num FROM data_storage WHERE %s AND identifier = ?";
+        // Counts the index range from the value up; ties only count when they sort before identifier
+        String countSql = "SELECT COUNT(*) + 1 FROM data_storage WHERE %s AND value_num >= ?1 AND (value_num > ?1 OR identifier < ?2)";
+        flush(dataType);
+
+        try {
+            return timedRead("getRank", dataType, conn -> inTransaction(conn, () -> {
+                DataLayout layout = layout(dataType);
+                String ranked = rankedRows(conn, layout, dataType, key) + " AND value_num IS NOT NULL AND " + NOT_EXPIRED;
+                PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql.formatted(ranked)));
+                layout.bindIdentifier(stmt, 1, identifier);
+                Object value;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) return 0;
+                    value = rs.getObject(1);
+                }
+
+                stmt = shards.forType(dataType).prepareCached(conn, layout.sql(countSql.formatted(ranked)));
+                stmt.setObject(1, value);
+                layout.bindIdentifier(stmt, 2, identifier);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }));
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to rank " + identifier + " by " + dataType + "/" + key, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Index one numeric key of one data type by value, so getTopN reads just the first n rows of that key and getRank
+     * counts only the rows above it, instead of sorting every row of the type. Call it at every startup; it does
+     * nothing if the index exists, and the conversion to compact-data drops it with the old table.
+     */
+    public boolean createLeaderboardIndex(String dataType, String key) {
+        try {
+            return timedWrite("createLeaderboardIndex", dataType, conn -> {
+                DataLayout layout = layout(dataType);
+                // The compact layout writes the interned ids into the index definition
+                layout.intern(conn, dataType, List.of(key));
+                // data_type and data_key are constant in the index, but SQLite only treats it as covering when it holds them;
+                // the compact layout stores them there anyway as part of its primary key
+                String sql = "CREATE INDEX IF NOT EXISTS " + leaderboardIndexName(dataType, key) + " ON " + layout.table()
+                        + "(value_num DESC, identifier, value_type, expires_at, data_type, data_key) WHERE " + rankedRows(conn, layout, dataType, key);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(sql);
+                    // Same as createObjectIndex: without statistics the planner may still walk the type and sort
+                    stmt.execute("ANALYZE " + layout.table());
+                }
+                return true;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to create the leaderboard index on " + dataType + "/" + key, e);
+            return false;
+        }
+    }
+
+    public boolean dropLeaderboardIndex(String dataType, String key) {
+        String sql = "DROP INDEX IF EXISTS " + leaderboardIndexName(dataType, key);
+        try {
+            return timedWrite("dropLeaderboardIndex", dataType, conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(sql);
+                }
+                return true;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to drop the leaderboard index on " + dataType + "/" + key, e);
+            return false;
+        }
+    }
+
+    /**
+     * Keep the best capacity identifiers of a numeric key in memory, updated by every write of the key through this API,
+     * so getTopN up to capacity and getRank of the held identifiers do not touch the database. Loaded on first use.
+     */
+    public void enableLeaderboard(String dataType, String key, int capacity) {
+        leaderboards.putIfAbsent(new CacheKey(dataType, key), new Leaderboard(Math.max(1, capacity), layout(dataType).identifierOrder()));
+    }
+
+    public void disableLeaderboard(String dataType, String key) {
+        leaderboards.remove(new CacheKey(dataType, key));
+    }
+
+    // expiresAt is the earliest expires_at among the rows, Long.MAX_VALUE if none expire
+    private record TopScores(List<Leaderboard.Entry> entries, long expiresAt) {}
+
+    private TopScores readTopN(String operation, String dataType, String key, int limit) throws SQLException {
+        String sql = "SELECT identifier, value_num, value_type, expires_at FROM data_storage WHERE %s AND value_num IS NOT NULL AND "
+                + NOT_EXPIRED + " ORDER BY value_num DESC, identifier LIMIT ?";
+        // Buffered writes have to be in the table for the query to see them
+        flush(dataType);
+
+        return timedRead(operation, dataType, conn -> {
+            DataLayout layout = layout(dataType);
+            PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql.formatted(rankedRows(conn, layout, dataType, key))));
+            stmt.setInt(1, limit);
+
+            List<Leaderboard.Entry> entries = new ArrayList<>();
+            long expiresAt = Long.MAX_VALUE;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new Leaderboard.Entry(entries.size() + 1, layout.getIdentifier(rs, "identifier"),
+                            (Number) readValue(rs, rs.getString("value_type"))));
+                    long rowExpiresAt = rs.getLong("expires_at");
+                    if (!rs.wasNull()) expiresAt = Math.min(expiresAt, rowExpiresAt);
+                }
+            }
+            return new TopScores(entries, expiresAt);
+        });
+    }
+
+    /**
+     * Reload a stale leaderboard; the rows read also answer the current call if a write raced with the reload
+     */
+    private List<Leaderboard.Entry> loadLeaderboard(String dataType, String key, Leaderboard board) {
+        long stamp = board.loadStamp();
+        try {
+            // One row past capacity tells whether identifiers exist below the board
+            TopScores rows = readTopN("loadLeaderboard", dataType, key, board.capacity() + 1);
+            board.load(stamp, rows.entries(), rows.expiresAt());
+            return rows.entries();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to load the leaderboard of " + dataType + "/" + key, e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * WHERE terms of the leaderboard index of a key. Queries repeat them with the same literals, otherwise SQLite
+     * cannot tell that the partial index covers them.
+     */
+    private static String rankedRows(Connection conn, DataLayout layout, String dataType, String key) throws SQLException {
+        return "data_type = " + layout.nameLiteral(conn, dataType, false) + " AND data_key = " + layout.nameLiteral(conn, key, false)
+                + " AND value_type IN ('INTEGER', 'LONG', 'DOUBLE')";
+    }
+
+    private static String leaderboardIndexName(String dataType, String key) {
+        String readable = (dataType + "_" + key).replaceAll("[^A-Za-z0-9]+", "_").toLowerCase(Locale.ROOT);
+        return "idx_leaderboard_" + readable + "_" + Integer.toHexString((dataType + '\0' + key).hashCode());
+    }
+
+    /**
+     * Pass a committed or buffered write of one key to its in-memory leaderboard; values that are not numbers drop the identifier
+     */
+    private void trackScore(String dataType, String identifier, String key, Object value, Long expiresAt) {
+        if (leaderboards.isEmpty()) return;
+        Leaderboard board = leaderboards.get(new CacheKey(dataType, key));
+        if (board != null) {
+            // Numbers encode to themselves; non-finite doubles become text, which the leaderboard SQL skips as well
+            board.update(identifier, encodeValue(value) instanceof Number number ? number : null, expiresAt);
+        }
+    }
+
+    private void untrackScores(String dataType, String identifier) {
+        leaderboards.forEach((cacheKey, board) -> {
+            if (cacheKey.type().equals(dataType)) board.update(identifier, null, null);
+        });
+    }
+
+    // ==================== OBJECT STORAGE ====================
+
+    /**
+     * Store any complex object as JSON
+     */
+    public boolean storeObject(String objectType, String objectId, Object object) {
+        return storeObject(objectType, objectId, object, "JSON");
+    }
+
+    /**
+     * Store object with custom format
+     */
+    public boolean storeObject(String objectType, String objectId, Object object, String format) {
+        String serializedData;
+        if ("JSON".equals(format)) {
+            serializedData = gson.toJson(object);
+        } else {
+            serializedData = object.toString();
+        }
+
+        WriteBehindBuffer buffer = writeBehind(objectType);
+        if (buffer != null) {
+            buffer.addObject(new WriteBehindBuffer.ObjectWrite(objectType, objectId, serializedData, format));
+            return true;
+        }
+        return writeObject(objectType, objectId, serializedData, format, null);
+    }
+
+    /**
+     * Store an object as JSON that reads treat as absent once ttl has passed; skips the write-behind buffer
+     */
+    public boolean storeObjectExpiring(String objectType, String objectId, Object object, Duration ttl) {
+        return writeObject(objectType, objectId, gson.toJson(object), "JSON", expiresAt(ttl));
+    }
+
+    private boolean writeObject(String objectType, String objectId, String serializedData, String format, Long expiresAt) {
+        try {
+            return timedWrite("storeObject", objectType, conn -> {
+                try {
+                    flushPendingObject(objectType, objectId);
+                    PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, UPSERT_OBJECT_SQL);
+                    bindObjectRow(stmt, objectType, objectId, serializedData, format, expiresAt);
+
+                    return stmt.executeUpdate() > 0;
+                } finally {
+                    invalidateObject(objectType, objectId);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to store object", e);
+            return false;
+        }
+    }
+
+    /**
+     * An object together with the version it was read at
+     */
+    public record Versioned<T>(T value, long version) {}
+
+    /**
+     * Get an object with its version for a later storeObjectIfVersion; null if it does not exist.
+     * Always reads the database, never the object cache.
+     */
+    public <T> Versioned<T> getObjectVersioned(String objectType, String objectId, Class<T> expectedType) {
+        String sql = "SELECT object_data, data_format, version FROM object_storage WHERE object_type = ? AND object_id = ? AND "
+                + NOT_EXPIRED;
+        // A buffered write has no version yet
+        flushPendingObject(objectType, objectId);
+
+        try {
+            return timedRead("getObjectVersioned", objectType, conn -> {
+                PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                stmt.setString(1, objectType);
+                stmt.setString(2, objectId);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return new Versioned<>(decodeObject(readStoredObject(rs, null), expectedType), rs.getLong("version"));
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve versioned object", e);
+            return null;
+        }
+    }
+
+    /**
+     * Store an object as JSON only if its stored version is still expectedVersion, which then goes up by one.
+     * expectedVersion 0 means the object must not exist yet. Returns false on a conflict: read it again and retry.
+     * An existing object keeps its expiry. Skips the write-behind buffer.
+     */
+    public boolean storeObjectIfVersion(String objectType, String objectId, Object object, long expectedVersion) {
+        String serializedData = gson.toJson(object);
+        String sql;
+        if (expectedVersion == 0) {
+            sql = """
+                INSERT INTO object_storage (object_type, object_id, object_data, data_format, expires_at, updated_at)
+                VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+                ON CONFLICT DO NOTHING
+            """;
+        } else {
+            sql = """
+                UPDATE object_storage SET object_data = ?3, data_format = ?4, updated_at = CURRENT_TIMESTAMP, version = version + 1
+                WHERE object_type = ?1 AND object_id = ?2 AND version = ?6 AND %s
+            """.formatted(NOT_EXPIRED);
+        }
+
+        try {
+            return timedWrite("storeObjectIfVersion", objectType, conn -> {
+                try {
+                    flushPendingObject(objectType, objectId);
+                    // An expired object counts as absent
+                    PreparedStatement stmt = shards.forType(objectType).prepareCached(conn,
+                            "DELETE FROM object_storage WHERE object_type = ? AND object_id = ? AND expires_at <= unixepoch('subsec') * 1000");
+                    stmt.setString(1, objectType);
+                    stmt.setString(2, objectId);
+                    stmt.executeUpdate();
+
+                    stmt = shards.forType(objectType).prepareCached(conn, sql);
+                    bindObjectRow(stmt, objectType, objectId, serializedData, "JSON", null);
+                    if (expectedVersion != 0) {
+                        stmt.setLong(6, expectedVersion);
+                    }
+                    return stmt.executeUpdate() > 0;
+                } finally {
+                    invalidateObject(objectType, objectId);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to store object if version", e);
+            return false;
+        }
+    }
+
+    /**
+     * Commit a buffered write of an object before reading or comparing its version
+     */
+    private void flushPendingObject(String objectType, String objectId) {
+        WriteBehindBuffer buffer = writeBehind(objectType);
+        if (buffer != null && buffer.getObject(objectType, objectId) != null) {
+            flush(objectType);
+        }
+    }
+
+    /**
+     * Set fields of a stored JSON object in place with json_set, without reading and rewriting it in Java.
+     * Paths look like $.stats.level or $.friends[#] to append; values are serialized with Gson, missing parents are created.
+     * Returns false if the object does not exist.
+     */
+    public boolean patchObject(String objectType, String objectId, Map<String, ?> changes) {
+        if (changes == null || changes.isEmpty()) return true;
+        // No object is stored under a null id
+        if (objectId == null) return false;
+        return patchObjects(objectType, Map.of(objectId, changes)) == 1;
+    }
+
+    /**
+     * Patch many objects of one type in one transaction; returns how many existed and were patched, -1 on failure
+     */
+    public int patchObjects(String objectType, Map<String, ? extends Map<String, ?>> patches) {
+        if (patches == null || patches.isEmpty()) return 0;
+        // Serialize outside the write lock
+        Map<String, List<String>> arguments = new LinkedHashMap<>();
+        patches.forEach((objectId, changes) -> {
+            List<String> pathsAndValues = new ArrayList<>();
+            changes.forEach((path, value) -> {
+                pathsAndValues.add(path);
+                pathsAndValues.add(gson.toJson(value));
+            });
+            arguments.put(objectId, pathsAndValues);
+        });
+        return editObjects("patchObjects", objectType, arguments, "json_set", ", json(?)");
+    }
+
+    /**
+     * Remove fields of a stored JSON object in place with json_remove; returns false if the object does not exist
+     */
+    public boolean removeObjectFields(String objectType, String objectId, String... paths) {
+        if (paths == null || paths.length == 0) return true;
+        if (objectId == null) return false;
+        return editObjects("removeObjectFields", objectType, Map.of(objectId, List.of(paths)), "json_remove", "") == 1;
+    }
+
+    /**
+     * Apply function(object_data, ?<argument>, ...) to each object, one UPDATE per object in a single transaction.
+     * Every entry of arguments alternates a bound path with argumentSql when that is not empty.
+     */
+    private int editObjects(String operation, String objectType, Map<String, List<String>> arguments, String function,
+                            String argumentSql) {
+        // JSON functions need plain JSON, the same as queries
+        if (!prepareObjectQueries(objectType)) return -1;
+
+        try {
+            return timedWrite(operation, objectType, conn -> {
+                try {
+                    // An edit has to apply on top of a buffered write of the same object
+                    WriteBehindBuffer buffer = writeBehind(objectType);
+                    if (buffer != null && arguments.keySet().stream().anyMatch(id -> buffer.getObject(objectType, id) != null)) {
+                        flush(objectType);
+                    }
+                    return inTransaction(conn, () -> {
+                        int edited = 0;
+                        for (Map.Entry<String, List<String>> entry : arguments.entrySet()) {
+                            List<String> values = entry.getValue();
+                            int paths = argumentSql.isEmpty() ? values.size() : values.size() / 2;
+                            String sql = "UPDATE object_storage SET object_data = " + function + "(object_data"
+                                    + (", ?" + argumentSql).repeat(paths) + "), updated_at = CURRENT_TIMESTAMP, version = version + 1"
+                                    + " WHERE object_type = ? AND object_id = ? AND data_format = 'JSON' AND " + NOT_EXPIRED;
+                            PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                            int index = 1;
+                            for (String value : values) {
+                                stmt.setString(index++, value);
+                            }
+                            stmt.setString(index++, objectType);
+                            stmt.setString(index, entry.getKey());
+                            edited += stmt.executeUpdate();
+                        }
+                        return edited;
+                    });
+                } finally {
+                    arguments.keySet().forEach(objectId -> invalidateObject(objectType, objectId));
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to " + function + " " + objectType + " objects", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Get object with type safety
+     */
+    public <T> T getObject(String objectType, String objectId, Class<T> expectedType) {
+        StoredObject stored = loadObject(objectType, objectId);
+        return stored == null ? null : decodeObject(stored, expectedType);
+    }
+
+    /**
+     * Convert a stored object payload into the requested type
+     */
+    <T> T decodeObject(StoredObject stored, Class<T> expectedType) {
+        if (!"JSON".equals(stored.format())) {
+            // For non-JSON formats, return as string and let caller handle conversion
+            return expectedType.cast(stored.data());
+        }
+        if (stored.decoded() != null) {
+            return expectedType.cast(stored.decoded().computeIfAbsent(expectedType, type -> gson.fromJson(stored.data(), type)));
+        }
+        return gson.fromJson(stored.data(), expectedType);
+    }
+
+    /**
+     * Get object as Map (for dynamic access)
+     */
+    public Map<String, Object> getObjectAsMap(String objectType, String objectId) {
+        Type mapType = new TypeToken<Map<String, Object>>(){}.getType();
+
+        StoredObject stored = loadObject(objectType, objectId);
+        if (stored != null && "JSON".equals(stored.format())) {
+            return gson.fromJson(stored.data(), mapType);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Get many objects of one type in a few queries; ids without a stored object are left out of the result
+     */
+    public <T> Map<String, T> getObjectsBulk(String objectType, Collection<String> objectIds, Class<T> expectedType) {
+        Map<String, StoredObject> found = new LinkedHashMap<>();
+        if (objectIds == null || objectIds.isEmpty()) return new LinkedHashMap<>();
+        objectIds.forEach(objectId -> found.put(objectId, null));
+
+        WriteBehindBuffer buffer = writeBehind(objectType);
+        LruCache<CacheKey, StoredObject> cache = objectCache;
+        List<String> missing = new ArrayList<>();
+        Map<String, Long> stamps = new HashMap<>();
+        for (String objectId : found.keySet()) {
+            WriteBehindBuffer.ObjectWrite pending = buffer != null ? buffer.getObject(objectType, objectId) : null;
+            if (pending != null) {
+                found.put(objectId, new StoredObject(pending.data(), pending.format(), null));
+                continue;
+            }
+
+            CacheKey cacheKey = new CacheKey(objectType, objectId);
+            StoredObject cached = cache != null ? cache.get(cacheKey) : null;
+            if (cached != null) {
+                found.put(objectId, cached);
+            } else {
+                missing.add(objectId);
+                if (cache != null) stamps.put(objectId, cache.stamp(cacheKey));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            String sql = "SELECT object_id, object_data, data_format, expires_at FROM object_storage WHERE object_type = ? AND object_id IN (%s) AND "
+                    + NOT_EXPIRED;
+            try {
+                Map<String, Long> expiries = new HashMap<>();
+                Map<String, StoredObject> loaded = timedRead("getObjectsBulk", objectType, conn -> inTransaction(conn, () -> {
+                    Map<String, StoredObject> objects = new HashMap<>();
+                    queryInChunks(conn, null, sql, objectType, missing, rs -> {
+                        while (rs.next()) {
+                            String objectId = rs.getString("object_id");
+                            objects.put(objectId, readStoredObject(rs, cache != null && shareCachedObjects ? new ConcurrentHashMap<>() : null));
+                            long expiresAt = rs.getLong("expires_at");
+                            if (!rs.wasNull()) expiries.put(objectId, expiresAt);
+                        }
+                        return null;
+                    });
+                    return objects;
+                }));
+
+                loaded.forEach((objectId, stored) -> {
+                    found.put(objectId, stored);
+                    if (cache != null) {
+                        cache.put(new CacheKey(objectType, objectId), stored, stamps.get(objectId), expiries.getOrDefault(objectId, Long.MAX_VALUE));
+                    }
+                });
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Failed to retrieve bulk objects", e);
+            }
+        }
+
+        Map<String, T> result = new LinkedHashMap<>();
+        found.forEach((objectId, stored) -> {
+            if (stored != null) result.put(objectId, decodeObject(stored, expectedType));
+        });
+        return result;
+    }
+
+    /**
+     * Get all objects of a specific type
+     */
+    public List<String> getObjectIds(String objectType) {
+        List<String> ids = new ArrayList<>();
+        String sql = "SELECT object_id FROM object_storage WHERE object_type = ? AND " + NOT_EXPIRED;
+
+        try {
+            timedRead("getObjectIds", objectType, conn -> {
+                PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                stmt.setString(1, objectType);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getString("object_id"));
+                    }
+                    return ids;
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve object IDs", e);
+        }
+
+        WriteBehindBuffer buffer = writeBehind(objectType);
+        if (buffer != null) {
+            for (String pendingId : buffer.getObjectIds(objectType)) {
+                if (!ids.contains(pendingId)) ids.add(pendingId);
+            }
+        }
+        return ids;
+    }
+
+    // ==================== OBJECT QUERIES ====================
+
+    /**
+     * Ids of the objects of a type matching query, in its sort order, filtered inside the database
+     */
+    public List<String> findObjectIds(String objectType, ObjectQuery query) {
+        return findObjectRows("findObjectIds", objectType, query, "object_id", new ArrayList<>(), (rs, ids) ->
+                ids.add(rs.getString("object_id")));
+    }
+
+    /**
+     * Objects of a type matching query by id, in its sort order; only the matching ones are decoded
+     */
+    public <T> Map<String, T> findObjects(String objectType, ObjectQuery query, Class<T> expectedType) {
+        return findObjectRows("findObjects", objectType, query, "object_id, object_data, data_format", new LinkedHashMap<>(),
+                (rs, objects) -> objects.put(rs.getString("object_id"), decodeObject(readStoredObject(rs, null), expectedType)));
+    }
+
+    /**
+     * Only the given fields of the objects matching query, by id and then by path, read without decoding the objects.
+     * Numbers come back as Long or Double, booleans as 1 or 0, nested objects and arrays as JSON text.
+     */
+    public Map<String, Map<String, Object>> findObjectFields(String objectType, ObjectQuery query, String... paths) {
+        StringBuilder columns = new StringBuilder("object_id");
+        for (String path : paths) {
+            columns.append(", ").append(ObjectQuery.field(path));
+        }
+        return findObjectRows("findObjectFields", objectType, query, columns.toString(), new LinkedHashMap<>(), (rs, rows) -> {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            for (int i = 0; i < paths.length; i++) {
+                // The driver returns small integers as Integer
+                Object value = rs.getObject(i + 2);
+                fields.put(paths[i], value instanceof Integer number ? Long.valueOf(number) : value);
+            }
+            rows.put(rs.getString("object_id"), fields);
+        });
+    }
+
+    /**
+     * Number of objects of a type matching query; its order and limit are ignored
+     */
+    public int countObjects(String objectType, ObjectQuery query) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM object_storage WHERE object_type = " + ObjectQuery.literal(objectType) + " AND "
+                + NOT_EXPIRED + " AND (" + query.toSql(params) + ")";
+        // Buffered objects have to be in the table for the count to include them
+        flush(objectType);
+        if (!prepareObjectQueries(objectType)) return 0;
+
+        try {
+            return timedRead("countObjects", objectType, conn -> {
+                PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to count " + objectType + " objects matching " + query, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Index one JSON field of one object type, so ObjectQuery conditions and sorting on it seek instead of scanning
+     * every object of the type. Building it reads every object of the type once.
+     */
+    public boolean createObjectIndex(String objectType, String jsonPath) {
+        // Partial on the type, so it only holds that type's rows; queries inline the type literal to match it
+        String index = ObjectQuery.indexName(objectType, jsonPath);
+        String sql = "CREATE INDEX IF NOT EXISTS " + index + " ON object_storage(" + ObjectQuery.field(jsonPath)
+                + ", object_id) WHERE object_type = " + ObjectQuery.literal(objectType);
+        if (!prepareObjectQueries(objectType)) return false;
+
+        try {
+            return timedWrite("createObjectIndex", objectType, conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(sql);
+                    // Without statistics the planner takes idx_object_type over the new index and sorts in a temp b-tree;
+                    // stats for the new index alone would make it look worse still next to the unanalyzed ones
+                    stmt.execute("ANALYZE object_storage");
+                }
+                return true;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to index " + jsonPath + " of " + objectType + " objects", e);
+            return false;
+        }
+    }
+
+    public boolean dropObjectIndex(String objectType, String jsonPath) {
+        String sql = "DROP INDEX IF EXISTS " + ObjectQuery.indexName(objectType, jsonPath);
+        try {
+            return timedWrite("dropObjectIndex", objectType, conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(sql);
+                }
+                return true;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to drop the index on " + jsonPath + " of " + objectType + " objects", e);
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowCollector<R> {
+        void accept(ResultSet rs, R result) throws SQLException;
+    }
+
+    private <R> R findObjectRows(String operation, String objectType, ObjectQuery query, String columns, R result,
+                                 RowCollector<R> collector) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT " + columns + " FROM object_storage WHERE object_type = " + ObjectQuery.literal(objectType)
+                + " AND " + NOT_EXPIRED + " AND (" + query.toSql(params) + ")" + query.orderSql();
+        // Buffered objects have to be in the table for the query to see them
+        flush(objectType);
+        if (!prepareObjectQueries(objectType)) return result;
+
+        try {
+            return timedRead(operation, objectType, conn -> {
+                PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        collector.accept(rs, result);
+                    }
+                }
+                return result;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to find " + objectType + " objects matching " + query, e);
+            return result;
+        }
+    }
+
+    /**
+     * JSON functions cannot look inside gzip payloads, so the first query or patch on a type stores its compressed
+     * objects as plain JSON again and from then on, restarts included, its objects are written uncompressed.
+     * Concurrent callers wait for that to finish; after a failure the next caller tries again.
+     */
+    private boolean prepareObjectQueries(String objectType) {
+        CompletableFuture<Boolean> ready = jsonQueryReady.get(objectType);
+        if (ready == null) {
+            CompletableFuture<Boolean> inflating = new CompletableFuture<>();
+            ready = jsonQueryReady.putIfAbsent(objectType, inflating);
+            if (ready == null) {
+                boolean inflated = false;
+                try {
+                    inflated = inflateObjects(objectType);
+                } finally {
+                    if (!inflated) jsonQueryReady.remove(objectType);
+                    inflating.complete(inflated);
+                }
+                return inflated;
+            }
+        }
+        return ready.join();
+    }
+
+    private boolean inflateObjects(String objectType) {
+        String selectSql = "SELECT id, object_data FROM object_storage WHERE object_type = ? AND data_format = ? LIMIT ?";
+        String updateSql = "UPDATE object_storage SET object_data = ?, data_format = 'JSON' WHERE id = ?";
+        String recordSql = "INSERT OR IGNORE INTO object_json_types (object_type) VALUES (?)";
+        // Writes from here on skip compression, so the loop below ends
+        jsonQueryTypes.add(objectType);
+        int inflated = 0;
+        try {
+            int batch;
+            do {
+                // One transaction per batch keeps the write lock free for other writers in between
+                batch = timedWrite("inflateObjects", objectType, conn -> inTransaction(conn, () -> {
+                    Map<Long, String> rows = new LinkedHashMap<>();
+                    PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, selectSql);
+                    stmt.setString(1, objectType);
+                    stmt.setString(2, FORMAT_JSON_GZIP);
+                    stmt.setInt(3, INFLATE_BATCH_SIZE);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows.put(rs.getLong("id"), decompress(rs.getBytes("object_data")));
+                        }
+                    }
+
+                    stmt = shards.forType(objectType).prepareCached(conn, updateSql);
+                    for (Map.Entry<Long, String> row : rows.entrySet()) {
+                        stmt.setString(1, row.getValue());
+                        stmt.setLong(2, row.getKey());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+
+                    // The last batch: nothing compressed is left and nothing new gets compressed, so record the type
+                    if (rows.size() < INFLATE_BATCH_SIZE) {
+                        stmt = shards.forType(objectType).prepareCached(conn, recordSql);
+                        stmt.setString(1, objectType);
+                        stmt.executeUpdate();
+                    }
+                    return rows.size();
+                }));
+                inflated += batch;
+            } while (batch == INFLATE_BATCH_SIZE);
+        } catch (SQLException e) {
+            // Writes stay uncompressed, so the retry has no more to do than this attempt had
+            logger.log(Level.SEVERE, "Failed to decompress " + objectType + " objects for JSON queries and patches", e);
+            return false;
+        }
+        if (inflated > 0) {
+            logger.info("Stored " + inflated + " compressed " + objectType + " objects as plain JSON for JSON queries and patches");
+        }
+        return true;
+    }
+
+    /**
+     * Types decompressed for JSON functions before this start are written uncompressed and need no new pass
+     */
+    private void loadJsonQueryTypes() {
+        String sql = "SELECT object_type FROM object_json_types";
+        for (DatabaseConnection shard : shards.getShards()) {
+            try {
+                timedRead(shard, "loadJsonQueryTypes", null, null, conn -> {
+                    try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                        while (rs.next()) {
+                            String objectType = rs.getString(1);
+                            jsonQueryTypes.add(objectType);
+                            jsonQueryReady.put(objectType, CompletableFuture.completedFuture(true));
+                        }
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Failed to read the JSON query types of " + shard.getDatabaseFile().getName(), e);
+            }
+        }
+    }
+
+    // ==================== STREAMING & PAGINATION ====================
+
+    /**
+     * One page of a keyset-paginated scan; pass nextAfter() as the "after" argument to get the following page
+     */
+    public record Page<T>(Map<String, T> entries, String nextAfter) {
+        public boolean hasMore() {
+            return nextAfter != null;
+        }
+    }
+
+    /**
+     * Stream every object of a type through one forward-only cursor. Rows are decoded as they are consumed,
+     * so memory stays flat; the stream holds its own connection and must be closed (try-with-resources).
+     * A read failure throws IllegalStateException from the terminal operation instead of ending the stream early.
+     */
+    public <T> Stream<T> streamObjects(String objectType, Class<T> expectedType) {
+        String sql = "SELECT object_id, object_data, data_format FROM object_storage WHERE object_type = ? AND " + NOT_EXPIRED
+                + " ORDER BY object_id";
+        flush(objectType);
+
+        DatabaseConnection shard = shards.forType(objectType);
+        Connection conn = null;
+        long start = System.nanoTime();
+        try {
+            conn = shard.openCursorConnection();
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, objectType);
+            ResultSet rs = stmt.executeQuery();
+            metrics.record("streamObjects", objectType, start, false);
+
+            Connection cursor = conn;
+            Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (rs.next()) {
+                            action.accept(decodeObject(readStoredObject(rs, null), expectedType));
+                            return true;
+                        }
+                    } catch (SQLException e) {
+                        shard.closeCursorConnection(cursor);
+                        throw new IllegalStateException("Failed to stream " + objectType + " objects", e);
+                    }
+                    // Release the connection as soon as the cursor is exhausted, close() is then a no-op
+                    shard.closeCursorConnection(cursor);
+                    return false;
+                }
+            };
+            return StreamSupport.stream(rows, false).onClose(() -> shard.closeCursorConnection(cursor));
+        } catch (SQLException e) {
+            if (conn != null) shard.closeCursorConnection(conn);
+            metrics.record("streamObjects", objectType, start, true);
+            throw new IllegalStateException("Failed to stream " + objectType + " objects", e);
+        }
+    }
+
+    /**
+     * Visit every object of a type with its id through one forward-only cursor.
+     * Returns false if the scan failed, possibly after some objects were already visited.
+     */
+    public <T> boolean forEachObject(String objectType, Class<T> expectedType, BiConsumer<String, ? super T> action) {
+        String sql = "SELECT object_id, object_data, data_format FROM object_storage WHERE object_type = ? AND " + NOT_EXPIRED
+                + " ORDER BY object_id";
+
+        return scan(shards.forType(objectType), "forEachObject", sql, rs -> {
+            while (rs.next()) {
+                action.accept(rs.getString("object_id"), decodeObject(readStoredObject(rs, null), expectedType));
+            }
+            return null;
+        }, objectType);
+    }
+
+    /**
+     * Visit all keys of every identifier of a data type, one identifier at a time, through one forward-only cursor.
+     * Returns false if the scan failed, possibly after some identifiers were already visited.
+     */
+    public boolean forEachData(String dataType, BiConsumer<String, Map<String, Object>> action) {
+        // Rows come grouped by identifier from idx_data_type_identifier, or in primary key order in the compact layout
+        DataLayout layout = layout(dataType);
+        String sql = "SELECT identifier, data_key, data_value, value_num, value_type FROM data_storage WHERE data_type = "
+                + (layout.isCompact() ? "(SELECT id FROM data_names WHERE name = ?)" : "?")
+                + " AND " + NOT_EXPIRED + " ORDER BY identifier";
+
+        return scan(shards.forType(dataType), "forEachData", layout.sql(sql), rs -> {
+            String current = null;
+            Map<String, Object> values = new HashMap<>();
+            while (rs.next()) {
+                String identifier = layout.getIdentifier(rs, "identifier");
+                if (current != null && !current.equals(identifier)) {
+                    action.accept(current, values);
+                    values = new HashMap<>();
+                }
+                current = identifier;
+                String valueType = rs.getString("value_type");
+                values.put(layout.getName(rs, "data_key"), deserializeValue(readValue(rs, valueType), valueType, Object.class));
+            }
+            if (current != null) {
+                action.accept(current, values);
+            }
+            return null;
+        }, dataType);
+    }
+
+    /**
+     * Get up to limit objects of a type ordered by id, starting after afterId (null for the first page)
+     */
+    public <T> Page<T> getObjectPage(String objectType, String afterId, int limit, Class<T> expectedType) {
+        requirePageLimit(limit);
+        String sql = "SELECT object_id, object_data, data_format FROM object_storage WHERE object_type = ? AND " + NOT_EXPIRED
+                + (afterId == null ? "" : " AND object_id > ?") + " ORDER BY object_id LIMIT ?";
+        flush(objectType);
+
+        try {
+            return timedRead("getObjectPage", objectType, conn -> {
+                PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                int index = 1;
+                stmt.setString(index++, objectType);
+                if (afterId != null) stmt.setString(index++, afterId);
+                // One extra row tells whether another page follows
+                stmt.setLong(index, limit + 1L);
+
+                Map<String, T> entries = new LinkedHashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (entries.size() == limit) {
+                            return new Page<>(entries, lastKey(entries));
+                        }
+                        entries.put(rs.getString("object_id"), decodeObject(readStoredObject(rs, null), expectedType));
+                    }
+                }
+                return new Page<>(entries, null);
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve object page", e);
+            return new Page<>(new LinkedHashMap<>(), null);
+        }
+    }
+
+    /**
+     * Get all keys of up to limit identifiers of a data type ordered by identifier, starting after afterIdentifier
+     * (null for the first page)
+     */
+    public Page<Map<String, Object>> getDataPage(String dataType, String afterIdentifier, int limit) {
+        requirePageLimit(limit);
+        String sql = """
+            SELECT identifier, data_key, data_value, value_num, value_type FROM data_storage
+            WHERE data_type = ? AND %1$s AND identifier IN (
+                SELECT DISTINCT identifier FROM data_storage WHERE data_type = ? AND %1$s%2$s ORDER BY identifier LIMIT ?
+            )
+            ORDER BY identifier
+        """.formatted(NOT_EXPIRED, afterIdentifier == null ? "" : " AND identifier > ?");
+        flush(dataType);
+
+        try {
+            return timedRead("getDataPage", dataType, conn -> {
+                DataLayout layout = layout(dataType);
+                PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+                int index = 1;
+                layout.bindName(conn, stmt, index++, dataType, false);
+                layout.bindName(conn, stmt, index++, dataType, false);
+                // The compact layout orders by the stored form, so the cursor is compared in that form too
+                if (afterIdentifier != null) layout.bindIdentifier(stmt, index++, afterIdentifier);
+                stmt.setLong(index, limit + 1L);
+
+                Map<String, Map<String, Object>> entries = new LinkedHashMap<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String identifier = layout.getIdentifier(rs, "identifier");
+                        if (entries.size() == limit && !entries.containsKey(identifier)) {
+                            return new Page<>(entries, lastKey(entries));
+                        }
+                        String valueType = rs.getString("value_type");
+                        entries.computeIfAbsent(identifier, id -> new HashMap<>())
+                                .put(layout.getName(rs, "data_key"), deserializeValue(readValue(rs, valueType), valueType, Object.class));
+                    }
+                }
+                return new Page<>(entries, null);
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve data page", e);
+            return new Page<>(new LinkedHashMap<>(), null);
+        }
+    }
+
+    /**
+     * Run a full scan on a dedicated cursor connection of shard so it neither ties up a pooled reader nor blocks writers
+     */
+    private boolean scan(DatabaseConnection shard, String operation, String sql, ResultSetHandler<Void> handler, Object... params) {
+        String type = (String) params[0];
+        flush(type);
+
+        Connection conn = null;
+        // Only opening the cursor is timed, the handler runs caller code
+        long start = System.nanoTime();
+        boolean opened = false;
+        try {
+            conn = shard.openCursorConnection();
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < params.length; i++) {
+                    stmt.setObject(i + 1, params[i]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    metrics.record(operation, type, start, false);
+                    opened = true;
+                    handler.handle(rs);
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            if (!opened) metrics.record(operation, type, start, true);
+            logger.log(Level.SEVERE, "Failed to scan " + Arrays.toString(params), e);
+            return false;
+        } finally {
+            if (conn != null) shard.closeCursorConnection(conn);
+        }
+    }
+
+    private static void requirePageLimit(int limit) {
+        // LIMIT 0 would end every scan on its first page, and LIMIT -1 means no limit in SQLite
+        if (limit <= 0) throw new IllegalArgumentException("Page limit must be positive, got " + limit);
+    }
+
+    private static String lastKey(Map<String, ?> entries) {
+        String last = null;
+        for (String key : entries.keySet()) {
+            last = key;
+        }
+        return last;
+    }
+
+    // ==================== TAGGING SYSTEM ====================
+
+    /**
+     * Add a tag to any data
+     */
+    public boolean addTag(String targetType, String targetId, String tagName, String tagValue) {
+        WriteBehindBuffer buffer = writeBehind(targetType);
+        if (buffer != null) {
+            buffer.addTag(new WriteBehindBuffer.TagWrite(targetType, targetId, tagName, tagValue));
+            return true;
+        }
+        return writeTag(targetType, targetId, tagName, tagValue, null);
+    }
+
+    /**
+     * Add a tag that lookups ignore once ttl has passed; skips the write-behind buffer
+     */
+    public boolean addTagExpiring(String targetType, String targetId, String tagName, String tagValue, Duration ttl) {
+        return writeTag(targetType, targetId, tagName, tagValue, expiresAt(ttl));
+    }
+
+    private boolean writeTag(String targetType, String targetId, String tagName, String tagValue, Long expiresAt) {
+        try {
+            return timedWrite("addTag", targetType, conn -> {
+                WriteBehindBuffer buffer = writeBehind(targetType);
+                if (buffer != null && buffer.getTags(targetType, targetId).stream().anyMatch(write -> write.tagName().equals(tagName))) {
+                    flush(targetType);
+                }
+                PreparedStatement stmt = shards.forType(targetType).prepareCached(conn, UPSERT_TAG_SQL);
+                stmt.setString(1, targetType);
+                stmt.setString(2, targetId);
+                stmt.setString(3, tagName);
+                stmt.setString(4, tagValue);
+                stmt.setObject(5, expiresAt, Types.BIGINT);
+
+                return stmt.executeUpdate() > 0;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to add tag", e);
+            return false;
+        }
+    }
+
+    /**
+     * Add a simple tag without value
+     */
+    public boolean addTag(String targetType, String targetId, String tagName) {
+        return addTag(targetType, targetId, tagName, null);
+    }
+
+    /**
+     * Get all tags for a target
+     */
+    public Map<String, String> getTags(String targetType, String targetId) {
+        Map<String, String> tags = new HashMap<>();
+        String sql = "SELECT tag_name, tag_value FROM data_tags WHERE target_type = ? AND target_id = ? AND " + NOT_EXPIRED;
+
+        WriteBehindBuffer buffer = writeBehind(targetType);
+        List<WriteBehindBuffer.TagWrite> pending = buffer != null ? buffer.getTags(targetType, targetId) : List.of();
+
+        try {
+            timedRead("getTags", targetType, conn -> {
+                PreparedStatement stmt = shards.forType(targetType).prepareCached(conn, sql);
+                stmt.setString(1, targetType);
+                stmt.setString(2, targetId);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        tags.put(rs.getString("tag_name"), rs.getString("tag_value"));
+                    }
+                    return tags;
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve tags", e);
+        }
+
+        for (WriteBehindBuffer.TagWrite write : pending) {
+            tags.put(write.tagName(), write.tagValue());
+        }
+        return tags;
+    }
+
+    /**
+     * Find all targets with a specific tag
+     */
+    public List<String> findByTag(String targetType, String tagName, String tagValue) {
+        List<String> targets = new ArrayList<>();
+        String sql = "SELECT target_id FROM data_tags WHERE target_type = ? AND tag_name = ? AND tag_value = ? AND " + NOT_EXPIRED;
+
+        WriteBehindBuffer buffer = writeBehind(targetType);
+        List<WriteBehindBuffer.TagWrite> pending = buffer != null ? buffer.getTagsByName(targetType, tagName) : List.of();
+
+        try {
+            timedRead("findByTag", targetType, conn -> {
+                PreparedStatement stmt = shards.forType(targetType).prepareCached(conn, sql);
+                stmt.setString(1, targetType);
+                stmt.setString(2, tagName);
+                stmt.setString(3, tagValue);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        targets.add(rs.getString("target_id"));
+                    }
+                    return targets;
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to find by tag", e);
+        }
+
+        // Pending tag values override whatever the database still holds
+        for (WriteBehindBuffer.TagWrite write : pending) {
+            targets.remove(write.targetId());
+            if (Objects.equals(write.tagValue(), tagValue)) {
+                targets.add(write.targetId());
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Find all targets matching a boolean combination of tags, evaluated as one SQL statement
+     */
+    public List<String> findByTags(String targetType, TagQuery query) {
+        List<Object> params = new ArrayList<>();
+        String sql = query.toSql(targetType, params) + " ORDER BY target_id";
+        // Pending tag writes have to be in the table for the set operations to see them
+        flush(targetType);
+
+        try {
+            return timedRead("findByTags", targetType, conn -> {
+                PreparedStatement stmt = shards.forType(targetType).prepareCached(conn, sql);
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+
+                List<String> targets = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        targets.add(rs.getString(1));
+                    }
+                }
+                return targets;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to find by tags " + query, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // ==================== RELATIONSHIPS ====================
+
+    /**
+     * A parent -> child link; depth is 1 for direct links and the hop count in traversals
+     */
+    public record Relationship(String parentType, String parentId, String childType, String childId,
+                               String relationshipType, String metadata, int depth) {
+        public Relationship(String parentType, String parentId, String childType, String childId, String relationshipType) {
+            this(parentType, parentId, childType, childId, relationshipType, null, 1);
+        }
+    }
+
+    /**
+     * Link a child to a parent with the default OWNS relationship
+     */
+    public boolean link(String parentType, String parentId, String childType, String childId) {
+        return link(parentType, parentId, childType, childId, "OWNS", null);
+    }
+
+    public boolean link(String parentType, String parentId, String childType, String childId, String relationshipType) {
+        return link(parentType, parentId, childType, childId, relationshipType, null);
+    }
+
+    /**
+     * Link a child to a parent, updating the metadata if the link already exists
+     */
+    public boolean link(String parentType, String parentId, String childType, String childId, String relationshipType, String metadata) {
+        return linkBatch(List.of(new Relationship(parentType, parentId, childType, childId, relationshipType, metadata, 1)));
+    }
+
+    /**
+     * Create many links in one transaction
+     */
+    public boolean linkBatch(Collection<Relationship> relationships) {
+        if (relationships == null || relationships.isEmpty()) return true;
+
+        try {
+            return timedWrite(dbConnection, "linkBatch", null, null, conn -> inTransaction(conn, () -> {
+                PreparedStatement stmt = dbConnection.prepareCached(conn, LINK_SQL);
+                for (Relationship relationship : relationships) {
+                    stmt.setString(1, relationship.parentType());
+                    stmt.setString(2, relationship.parentId());
+                    stmt.setString(3, relationship.childType());
+                    stmt.setString(4, relationship.childId());
+                    stmt.setString(5, relationship.relationshipType() != null ? relationship.relationshipType() : "OWNS");
+                    stmt.setString(6, relationship.metadata());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                return true;
+            }));
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to link relationships", e);
+            return false;
+        }
+    }
+
+    /**
+     * Remove one link; a null relationshipType removes links of every type between the two
+     */
+    public boolean unlink(String parentType, String parentId, String childType, String childId, String relationshipType) {
+        String sql = """
+            DELETE FROM data_relationships
+            WHERE parent_type = ?1 AND parent_id = ?2 AND child_type = ?3 AND child_id = ?4
+              AND (?5 IS NULL OR relationship_type = ?5)
+        """;
+
+        try {
+            return timedWrite(dbConnection, "unlink", parentType, null, conn -> {
+                PreparedStatement stmt = dbConnection.prepareCached(conn, sql);
+                stmt.setString(1, parentType);
+                stmt.setString(2, parentId);
+                stmt.setString(3, childType);
+                stmt.setString(4, childId);
+                stmt.setString(5, relationshipType);
+
+                return stmt.executeUpdate() > 0;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to unlink relationship", e);
+            return false;
+        }
+    }
+
+    /**
+     * Remove every link in which the target is either the parent or the child
+     */
+    public boolean unlinkAll(String targetType, String targetId) {
+        String sql = "DELETE FROM data_relationships WHERE (parent_type = ?1 AND parent_id = ?2) OR (child_type = ?1 AND child_id = ?2)";
+
+        try {
+            return timedWrite(dbConnection, "unlinkAll", targetType, null, conn -> {
+                PreparedStatement stmt = dbConnection.prepareCached(conn, sql);
+                stmt.setString(1, targetType);
+                stmt.setString(2, targetId);
+
+                return stmt.executeUpdate() > 0;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to unlink relationships", e);
+            return false;
+        }
+    }
+
+    /**
+     * Direct children of a parent, optionally only of one relationship type (null for all)
+     */
+    public List<Relationship> getChildren(String parentType, String parentId, String relationshipType) {
+        String sql = """
+            SELECT parent_type, parent_id, child_type, child_id, relationship_type, metadata, 1 AS depth
+            FROM data_relationships
+            WHERE parent_type = ?1 AND parent_id = ?2 AND (?3 IS NULL OR relationship_type = ?3)
+        """;
+        return readRelationships("getChildren", sql, parentType, parentId, relationshipType);
+    }
+
+    /**
+     * Direct parents of a child, optionally only of one relationship type (null for all)
+     */
+    public List<Relationship> getParents(String childType, String childId, String relationshipType) {
+        String sql = """
+            SELECT parent_type, parent_id, child_type, child_id, relationship_type, metadata, 1 AS depth
+            FROM data_relationships
+            WHERE child_type = ?1 AND child_id = ?2 AND (?3 IS NULL OR relationship_type = ?3)
+        """;
+        return readRelationships("getParents", sql, childType, childId, relationshipType);
+    }
+
+    /**
+     * Every link below a node up to maxDepth hops, in breadth-first order, resolved in one recursive query
+     */
+    public List<Relationship> getDescendants(String type, String id, int maxDepth, String relationshipType) {
+        List<Relationship> result = new ArrayList<>();
+        forEachDescendant(type, id, maxDepth, relationshipType, result::add);
+        return result;
+    }
+
+    /**
+     * Every link above a node up to maxDepth hops, in breadth-first order, resolved in one recursive query
+     */
+    public List<Relationship> getAncestors(String type, String id, int maxDepth, String relationshipType) {
+        List<Relationship> result = new ArrayList<>();
+        forEachAncestor(type, id, maxDepth, relationshipType, result::add);
+        return result;
+    }
+
+    /**
+     * Stream the links below a node through one cursor, for subgraphs too large to collect
+     */
+    public boolean forEachDescendant(String type, String id, int maxDepth, String relationshipType, Consumer<Relationship> action) {
+        String sql = """
+            WITH RECURSIVE reach(node_type, node_id, depth) AS (
+                SELECT ?1, ?2, 0
+                UNION
+                SELECT r.child_type, r.child_id, t.depth + 1
+                FROM reach t JOIN data_relationships r ON r.parent_type = t.node_type AND r.parent_id = t.node_id
+                WHERE t.depth < ?4 - 1 AND (?3 IS NULL OR r.relationship_type = ?3)
+            )
+            SELECT r.parent_type, r.parent_id, r.child_type, r.child_id, r.relationship_type, r.metadata, MIN(t.depth) + 1 AS depth
+            FROM reach t JOIN data_relationships r ON r.parent_type = t.node_type AND r.parent_id = t.node_id
+            WHERE ?3 IS NULL OR r.relationship_type = ?3
+            GROUP BY r.id
+            ORDER BY depth
+        """;
+        return traverse("forEachDescendant", sql, type, id, maxDepth, relationshipType, action);
+    }
+
+    public boolean forEachAncestor(String type, String id, int maxDepth, String relationshipType, Consumer<Relationship> action) {
+        String sql = """
+            WITH RECURSIVE reach(node_type, node_id, depth) AS (
+                SELECT ?1, ?2, 0
+                UNION
+                SELECT r.parent_type, r.parent_id, t.depth + 1
+                FROM reach t JOIN data_relationships r ON r.child_type = t.node_type AND r.child_id = t.node_id
+                WHERE t.depth < ?4 - 1 AND (?3 IS NULL OR r.relationship_type = ?3)
+            )
+            SELECT r.parent_type, r.parent_id, r.child_type, r.child_id, r.relationship_type, r.metadata, MIN(t.depth) + 1 AS depth
+            FROM reach t JOIN data_relationships r ON r.child_type = t.node_type AND r.child_id = t.node_id
+            WHERE ?3 IS NULL OR r.relationship_type = ?3
+            GROUP BY r.id
+            ORDER BY depth
+        """;
+        return traverse("forEachAncestor", sql, type, id, maxDepth, relationshipType, action);
+    }
+
+    private boolean traverse(String operation, String sql, String type, String id, int maxDepth, String relationshipType, Consumer<Relationship> action) {
+        if (maxDepth < 1) return true;
+
+        // reach walks nodes, and UNION keeps each node once per depth, so diamonds and cycles cost at most
+        // nodes * maxDepth rows instead of one row per path; every link is reported once, at its first depth
+        return scan(dbConnection, operation, sql, rs -> {
+            while (rs.next()) {
+                action.accept(readRelationship(rs));
+            }
+            return null;
+        }, type, id, relationshipType, maxDepth);
+    }
+
+    private List<Relationship> readRelationships(String operation, String sql, String type, String id, String relationshipType) {
+        try {
+            return timedRead(dbConnection, operation, type, null, conn -> {
+                PreparedStatement stmt = dbConnection.prepareCached(conn, sql);
+                stmt.setString(1, type);
+                stmt.setString(2, id);
+                stmt.setString(3, relationshipType);
+
+                List<Relationship> relationships = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        relationships.add(readRelationship(rs));
+                    }
+                }
+                return relationships;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve relationships", e);
+            return new ArrayList<>();
+        }
+    }
+
+    private static Relationship readRelationship(ResultSet rs) throws SQLException {
+        return new Relationship(rs.getString("parent_type"), rs.getString("parent_id"), rs.getString("child_type"),
+                rs.getString("child_id"), rs.getString("relationship_type"), rs.getString("metadata"), rs.getInt("depth"));
+    }
+
+    // ==================== CONVENIENCE METHODS ====================
+
+    /**
+     * Store player data dynamically
+     */
+    public boolean storePlayerData(Player player, String category, Map<String, Object> data) {
+        return storeDataBatch("player_" + category, player.getUniqueId().toString(), data);
+    }
+
+    /**
+     * Get player data dynamically
+     */
+    public Map<String, Object> getPlayerData(Player player, String category) {
+        return getAllData("player_" + category, player.getUniqueId().toString());
+    }
+
+    /**
+     * Store entity data dynamically
+     */
+    public boolean storeEntityData(Entity entity, Map<String, Object> data) {
+        return storeLocatedData("entity", entity.getUniqueId().toString(), entityDataSnapshot(entity, data));
+    }
+
+    /**
+     * Store hologram data dynamically
+     */
+    public boolean storeHologramData(String hologramId, Location location, List<String> lines, Map<String, Object> properties) {
+        return storeLocatedData("hologram", hologramId, hologramDataSnapshot(location, lines, properties));
+    }
+
+    /**
+     * Store a snapshot holding world/x/y/z keys in one transaction; the location triggers move its spatial index entry
+     * in the same transaction. Located writes skip the write-behind buffer.
+     */
+    boolean storeLocatedData(String dataType, String identifier, Map<String, Object> snapshot) {
+        try {
+            return timedWrite("storeLocatedData", dataType, conn -> {
+                try {
+                    // Buffered writes of these keys are older and must not land on top of the snapshot later
+                    flushPendingKeys(dataType, Map.of(identifier, snapshot));
+                    DataLayout layout = layout(dataType);
+                    layout.intern(conn, dataType, snapshot.keySet());
+                    inTransaction(conn, () -> upsertDataRows(conn, layout, dataType, identifier, snapshot, null));
+                    snapshot.forEach((key, value) -> trackScore(dataType, identifier, key, value, null));
+                    return true;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to store located data", e);
+            return false;
+        }
+    }
+
+    // ==================== SPATIAL INDEX ====================
+
+    /**
+     * Add or move a point in the spatial index. Entity and hologram points follow their world/x/y/z data keys through
+     * every write, so this is for other data types; a later write of those keys replaces a point set here.
+     */
+    public boolean indexLocation(String dataType, String identifier, String world, double x, double y, double z) {
+        try {
+            return timedWrite("indexLocation", dataType, conn -> inTransaction(conn,
+                    () -> writeLocation(conn, dataType, identifier, world, x, y, z)));
+        } catch (SQLException e) {
+            // The space row may have been rolled back with the rest
+            spatialSpaces.remove(new CacheKey(dataType, world));
+            logger.log(Level.SEVERE, "Failed to index location", e);
+            return false;
+        }
+    }
+
+    public boolean removeLocation(String dataType, String identifier) {
+        try {
+            return timedWrite("removeLocation", dataType, conn -> inTransaction(conn, () -> deleteLocation(conn, dataType, identifier)));
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to remove location", e);
+            return false;
+        }
+    }
+
+    /**
+     * Identifiers of a data type inside an axis-aligned box (bounds inclusive)
+     */
+    public List<String> findInBox(String dataType, String world, double minX, double minY, double minZ,
+                                  double maxX, double maxY, double maxZ) {
+        String sql = SPATIAL_BOX_SQL + " AND px BETWEEN ?2 AND ?3 AND py BETWEEN ?4 AND ?5 AND pz BETWEEN ?6 AND ?7";
+        return findSpatial("findInBox", sql, dataType, world, minX, maxX, minY, maxY, minZ, maxZ);
+    }
+
+    /**
+     * Identifiers of a data type within radius blocks of a point, nearest first
+     */
+    public List<String> findInRadius(String dataType, String world, double x, double y, double z, double radius) {
+        String sql = SPATIAL_BOX_SQL + """
+             AND ((px - ?8) * (px - ?8) + (py - ?9) * (py - ?9) + (pz - ?10) * (pz - ?10)) <= ?11
+            ORDER BY (px - ?8) * (px - ?8) + (py - ?9) * (py - ?9) + (pz - ?10) * (pz - ?10)
+        """;
+        return findSpatial("findInRadius", sql, dataType, world, x - radius, x + radius, y - radius, y + radius, z - radius, z + radius,
+                x, y, z, radius * radius);
+    }
+
+    /**
+     * Identifiers of a data type inside a 16x16 chunk column
+     */
+    public List<String> findInChunk(String dataType, String world, int chunkX, int chunkZ) {
+        // Upper block bounds are exclusive so points on a chunk border belong to exactly one chunk
+        String sql = SPATIAL_BOX_SQL + " AND px >= ?2 AND px < ?3 AND pz >= ?6 AND pz < ?7";
+        double minX = chunkX * 16.0;
+        double minZ = chunkZ * 16.0;
+        return findSpatial("findInChunk", sql, dataType, world, minX, minX + 16, -Double.MAX_VALUE, Double.MAX_VALUE, minZ, minZ + 16);
+    }
+
+    private List<String> findSpatial(String operation, String sql, String dataType, String world, Object... bounds) {
+        try {
+            return timedRead(operation, dataType, conn -> {
+                List<String> identifiers = new ArrayList<>();
+                long spaceId = resolveSpace(conn, dataType, world, false);
+                if (spaceId < 0) return identifiers;
+
+                PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, sql);
+                stmt.setLong(1, spaceId);
+                for (int i = 0; i < bounds.length; i++) {
+                    stmt.setObject(i + 2, bounds[i]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        identifiers.add(rs.getString(1));
+                    }
+                }
+                return identifiers;
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to run spatial query", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Id of the (dataType, world) partition, created on demand when writing; -1 if it does not exist
+     */
+    private long resolveSpace(Connection conn, String dataType, String world, boolean create) throws SQLException {
+        CacheKey key = new CacheKey(dataType, world);
+        Long cached = spatialSpaces.get(key);
+        if (cached != null) return cached;
+
+        if (create) {
+            PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, "INSERT OR IGNORE INTO spatial_spaces (data_type, world) VALUES (?, ?)");
+            stmt.setString(1, dataType);
+            stmt.setString(2, world);
+            stmt.executeUpdate();
+        }
+
+        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, "SELECT id FROM spatial_spaces WHERE data_type = ? AND world = ?");
+        stmt.setString(1, dataType);
+        stmt.setString(2, world);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) return -1;
+            long id = rs.getLong(1);
+            spatialSpaces.put(key, id);
+            return id;
+        }
+    }
+
+    private boolean writeLocation(Connection conn, String dataType, String identifier, String world, double x, double y, double z)
+            throws SQLException {
+        long spaceId = resolveSpace(conn, dataType, world, true);
+
+        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, "INSERT OR IGNORE INTO spatial_points (data_type, identifier) VALUES (?, ?)");
+        stmt.setString(1, dataType);
+        stmt.setString(2, identifier);
+        stmt.executeUpdate();
+
+        long pointId;
+        stmt = shards.forType(dataType).prepareCached(conn, "SELECT id FROM spatial_points WHERE data_type = ? AND identifier = ?");
+        stmt.setString(1, dataType);
+        stmt.setString(2, identifier);
+        try (ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            pointId = rs.getLong(1);
+        }
+
+        stmt = shards.forType(dataType).prepareCached(conn, "INSERT OR REPLACE INTO spatial_index VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        stmt.setLong(1, pointId);
+        stmt.setLong(2, spaceId);
+        stmt.setLong(3, spaceId);
+        stmt.setDouble(4, x);
+        stmt.setDouble(5, x);
+        stmt.setDouble(6, y);
+        stmt.setDouble(7, y);
+        stmt.setDouble(8, z);
+        stmt.setDouble(9, z);
+        stmt.setString(10, identifier);
+        stmt.setDouble(11, x);
+        stmt.setDouble(12, y);
+        stmt.setDouble(13, z);
+        return stmt.executeUpdate() > 0;
+    }
+
+    private boolean deleteLocation(Connection conn, String dataType, String identifier) throws SQLException {
+        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn,
+                "DELETE FROM spatial_index WHERE id = (SELECT id FROM spatial_points WHERE data_type = ? AND identifier = ?)");
+        stmt.setString(1, dataType);
+        stmt.setString(2, identifier);
+        stmt.executeUpdate();
+
+        stmt = shards.forType(dataType).prepareCached(conn, "DELETE FROM spatial_points WHERE data_type = ? AND identifier = ?");
+        stmt.setString(1, dataType);
+        stmt.setString(2, identifier);
+        return stmt.executeUpdate() > 0;
+    }
+
+    // ==================== UTILITY METHODS ====================
+
+    /**
+     * Delete all data for a specific type and identifier
+     */
+    public boolean deleteData(String dataType, String identifier) {
+        String sql = "DELETE FROM data_storage WHERE data_type = ? AND identifier = ?";
+
+        try {
+            return timedWrite("deleteData", dataType, conn -> {
+                WriteBehindBuffer buffer = writeBehind(dataType);
+                if (buffer != null) {
+                    buffer.discardData(dataType, identifier);
+                }
+
+                try {
+                    boolean removed = inTransaction(conn, () -> {
+                        DataLayout layout = layout(dataType);
+                        PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+                        bindDataKey(conn, layout, stmt, dataType, identifier, null, false);
+
+                        boolean deleted = stmt.executeUpdate() > 0;
+                        deleteLocation(conn, dataType, identifier);
+                        return deleted;
+                    });
+                    untrackScores(dataType, identifier);
+                    return removed;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to delete data", e);
+            return false;
+        }
+    }
+
+    /**
+     * Delete specific data key
+     */
+    public boolean deleteDataKey(String dataType, String identifier, String key) {
+        String sql = "DELETE FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ?";
+
+        try {
+            return timedWrite("deleteDataKey", dataType, conn -> {
+                WriteBehindBuffer buffer = writeBehind(dataType);
+                if (buffer != null) {
+                    buffer.discardDataKey(dataType, identifier, key);
+                }
+
+                try {
+                    DataLayout layout = layout(dataType);
+                    PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+                    bindDataKey(conn, layout, stmt, dataType, identifier, key, false);
+
+                    boolean deleted = stmt.executeUpdate() > 0;
+                    trackScore(dataType, identifier, key, null, null);
+                    return deleted;
+                } finally {
+                    invalidateData(dataType, identifier);
+                }
+            });
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to delete data key", e);
+            return false;
+        }
+    }
+
+    /**
+     * Delete up to limit expired rows from each table that supports expiry; returns how many were removed.
+     * Every table is a separate short write so other writers are never held up for long. A purged world/x/y/z row of
+     * an entity or hologram drops its spatial point in the same statement, through the location triggers.
+     */
+    public int purgeExpired(int limit) {
+        int removed = 0;
+        for (DatabaseConnection shard : shards.getShards()) {
+            for (String table : EXPIRING_TABLES) {
+                // Served by the partial expires_at index
+                String sql = "DELETE FROM " + table + " WHERE id IN (SELECT id FROM " + table
+                        + " WHERE expires_at <= unixepoch('subsec') * 1000 LIMIT ?)";
+                try {
+                    removed += timedWrite(shard, "purgeExpired", table, null, conn -> {
+                        // data_compact has no rowid and is matched on its primary key instead
+                        boolean compact = table.equals(DataLayout.LEGACY_TABLE) && shard.getDataLayout().isCompact();
+                        PreparedStatement stmt = shard.prepareCached(conn, compact ? PURGE_COMPACT_SQL : sql);
+                        stmt.setInt(1, limit);
+                        return stmt.executeUpdate();
+                    });
+                } catch (SQLException e) {
+                    logger.log(Level.SEVERE, "Failed to purge expired rows from " + table, e);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Execute custom SQL query. Close the ResultSet as soon as it is read: it runs on the writer connection, and while
+     * its cursor is open the writer's implicit transaction stays open, so later writes do not commit until it is closed.
+     * Closing it also closes its statement. Prefer query, which maps the rows on a pooled reader.
+     */
+    public ResultSet executeQuery(String sql, Object... params) throws SQLException {
+        // Custom SQL must observe buffered writes
+        flush();
+
+        // The caller owns the ResultSet, so it stays on the writer connection rather than a pooled reader,
+        // and gets its own statement because a cached one would be reset underneath it by the next caller
+        return timedWrite(dbConnection, "executeQuery", null, sql, conn -> {
+            try {
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                try {
+                    for (int i = 0; i < params.length; i++) {
+                        stmt.setObject(i + 1, params[i]);
+                    }
+                    // Closing the ResultSet frees the native statement; nothing else holds on to it
+                    stmt.closeOnCompletion();
+                    return stmt.executeQuery();
+                } catch (SQLException e) {
+                    stmt.close();
+                    throw e;
+                }
+            } finally {
+                // It runs on the writer, so statements like INSERT ... RETURNING can change rows too
+                invalidateAllCaches();
+            }
+        });
+    }
+
+    /**
+     * Execute custom read-only SQL on a pooled reader and map the results (reuses prepared statements)
+     */
+    public <T> T query(String sql, ResultSetHandler<T> handler, Object... params) throws SQLException {
+        flush();
+
+        return timedRead(dbConnection, "query", null, sql, conn -> {
+            PreparedStatement stmt = dbConnection.prepareCached(conn, sql);
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return handler.handle(rs);
+            }
+        });
+    }
+
+    /**
+     * Maps the rows of a custom query while its statement is still held
+     */
+    @FunctionalInterface
+    public interface ResultSetHandler<T> {
+        T handle(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Execute custom SQL update
+     */
+    public int executeUpdate(String sql, Object... params) throws SQLException {
+        flush();
+
+        return timedWrite(dbConnection, "executeUpdate", null, sql, conn -> {
+            try {
+                PreparedStatement stmt = dbConnection.prepareCached(conn, sql);
+                for (int i = 0; i < params.length; i++) {
+                    stmt.setObject(i + 1, params[i]);
+                }
+
+                return stmt.executeUpdate();
+            } finally {
+                // Custom SQL can touch any row
+                invalidateAllCaches();
+            }
+        });
+    }
+
+    // ==================== COMPRESSION ====================
+
+    /**
+     * Gzip JSON objects whose compact form is at least this many characters, 0 to never compress
+     */
+    public void setObjectCompressionThreshold(int bytes) {
+        compressionThreshold = Math.max(0, bytes);
+    }
+
+    public int getObjectCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    // ==================== METRICS ====================
+
+    /**
+     * Call counts and latencies of every database round trip, per operation and data type
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    // ==================== SHARDING ====================
+
+    /**
+     * Which database file each type lives in; a single shard unless sharding is enabled
+     */
+    public ShardRouter getShardRouter() {
+        return shards;
+    }
+
+    // ==================== CACHING ====================
+
+    /**
+     * Cache data_storage rows per (dataType, identifier), bounded by entries, stored keys and TTL
+     */
+    public synchronized void enableDataCache(int maxEntries, long maxKeys, long ttlMillis) {
+        if (dataCache != null) return;
+        dataCache = new LruCache<>(maxEntries, maxKeys, ttlMillis, cached -> Math.max(1, cached.rows().size()));
+    }
+
+    /**
+     * Cache object_storage payloads per (objectType, objectId), bounded by entries, characters and TTL.
+     * With shareInstances, decoded objects are cached too and the same instance is returned to every caller.
+     */
+    public synchronized void enableObjectCache(int maxEntries, long maxChars, long ttlMillis, boolean shareInstances) {
+        if (objectCache != null) return;
+        shareCachedObjects = shareInstances;
+        objectCache = new LruCache<>(maxEntries, maxChars, ttlMillis, stored -> Math.max(1, stored.data().length()));
+    }
+
+    public LruCache.Stats getDataCacheStats() {
+        LruCache<CacheKey, CachedData> cache = dataCache;
+        return cache != null ? cache.stats() : null;
+    }
+
+    public LruCache.Stats getObjectCacheStats() {
+        LruCache<CacheKey, StoredObject> cache = objectCache;
+        return cache != null ? cache.stats() : null;
+    }
+
+    /**
+     * Drop every cached entry (e.g. after editing the database externally)
+     */
+    public void invalidateAllCaches() {
+        LruCache<CacheKey, CachedData> data = dataCache;
+        if (data != null) data.invalidateAll();
+        LruCache<CacheKey, StoredObject> objects = objectCache;
+        if (objects != null) objects.invalidateAll();
+        spatialSpaces.clear();
+        leaderboards.values().forEach(Leaderboard::invalidate);
+    }
+
+    private record CacheKey(String type, String id) {}
+
+    // expiresAt is only carried into player sessions, which outlive the reads that loaded them
+    record StoredValue(Object value, String valueType, Long expiresAt) {
+        StoredValue(Object value, String valueType) {
+            this(value, valueType, null);
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != null && expiresAt <= now;
+        }
+    }
+
+    // expiresAt is the earliest expires_at among the rows, Long.MAX_VALUE if none expire. decoded only holds values that
+    // cannot be changed by callers; LIST, MAP and OBJECT values are decoded again on every read, see decodedCopy
+    private record CachedData(Map<String, StoredValue> rows, Map<String, Object> decoded, long expiresAt) {}
+
+    record StoredObject(String data, String format, Map<Class<?>, Object> decoded) {}
+
+    private void invalidateData(String dataType, String identifier) {
+        LruCache<CacheKey, CachedData> cache = dataCache;
+        if (cache != null) cache.invalidate(new CacheKey(dataType, identifier));
+    }
+
+    private void invalidateObject(String objectType, String objectId) {
+        LruCache<CacheKey, StoredObject> cache = objectCache;
+        if (cache != null) cache.invalidate(new CacheKey(objectType, objectId));
+    }
+
+    private CachedData loadCachedData(String dataType, String identifier) {
+        LruCache<CacheKey, CachedData> cache = dataCache;
+        CacheKey cacheKey = new CacheKey(dataType, identifier);
+        CachedData cached = cache.get(cacheKey);
+        if (cached != null) return cached;
+
+        long stamp = cache.stamp(cacheKey);
+        try {
+            cached = readAllData(dataType, identifier);
+            cache.put(cacheKey, cached, stamp, cached.expiresAt());
+            return cached;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve all data", e);
+            return null;
+        }
+    }
+
+    private CachedData toCachedData(Map<String, StoredValue> rows, long expiresAt) {
+        Map<String, Object> decoded = new HashMap<>();
+        rows.forEach((key, stored) -> {
+            if (!isStructured(stored.valueType())) {
+                decoded.put(key, deserializeValue(stored.value(), stored.valueType(), Object.class));
+            }
+        });
+        return new CachedData(rows, decoded, expiresAt);
+    }
+
+    /**
+     * All values of a cached entry for one caller, with fresh instances of the mutable ones
+     */
+    private Map<String, Object> decodedCopy(CachedData cached) {
+        Map<String, Object> values = new HashMap<>(cached.decoded());
+        if (values.size() < cached.rows().size()) {
+            cached.rows().forEach((key, stored) -> {
+                if (isStructured(stored.valueType())) values.put(key, deserializeValue(stored.value(), stored.valueType(), Object.class));
+            });
+        }
+        return values;
+    }
+
+    private static boolean isStructured(String valueType) {
+        return "LIST".equals(valueType) || "MAP".equals(valueType) || "OBJECT".equals(valueType);
+    }
+
+    private CachedData readAllData(String dataType, String identifier) throws SQLException {
+        String sql = "SELECT data_key, data_value, value_num, value_type, expires_at FROM data_storage WHERE data_type = ? AND identifier = ? AND "
+                + NOT_EXPIRED;
+
+        return timedRead("getAllData", dataType, conn -> {
+            Map<String, StoredValue> rows = new HashMap<>();
+            long earliestExpiry = Long.MAX_VALUE;
+            DataLayout layout = layout(dataType);
+            PreparedStatement stmt = shards.forType(dataType).prepareCached(conn, layout.sql(sql));
+            bindDataKey(conn, layout, stmt, dataType, identifier, null, false);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String valueType = rs.getString("value_type");
+                    rows.put(layout.getName(rs, "data_key"), new StoredValue(readValue(rs, valueType), valueType));
+                    long expiresAt = rs.getLong("expires_at");
+                    if (!rs.wasNull()) earliestExpiry = Math.min(earliestExpiry, expiresAt);
+                }
+            }
+            return toCachedData(rows, earliestExpiry);
+        });
+    }
+
+    /**
+     * Resolve the stored form of an object from the write-behind buffer, the cache or the database
+     */
+    private StoredObject loadObject(String objectType, String objectId) {
+        WriteBehindBuffer buffer = writeBehind(objectType);
+        if (buffer != null) {
+            WriteBehindBuffer.ObjectWrite pending = buffer.getObject(objectType, objectId);
+            if (pending != null) {
+                return new StoredObject(pending.data(), pending.format(), null);
+            }
+        }
+
+        LruCache<CacheKey, StoredObject> cache = objectCache;
+        CacheKey cacheKey = new CacheKey(objectType, objectId);
+        long stamp = 0;
+        if (cache != null) {
+            StoredObject cached = cache.get(cacheKey);
+            if (cached != null) return cached;
+            stamp = cache.stamp(cacheKey);
+        }
+
+        String sql = "SELECT object_data, data_format, expires_at FROM object_storage WHERE object_type = ? AND object_id = ? AND "
+                + NOT_EXPIRED;
+
+        try {
+            long[] expiresAt = {Long.MAX_VALUE};
+            StoredObject stored = timedRead("getObject", objectType, conn -> {
+                PreparedStatement stmt = shards.forType(objectType).prepareCached(conn, sql);
+                stmt.setString(1, objectType);
+                stmt.setString(2, objectId);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        long expiry = rs.getLong("expires_at");
+                        if (!rs.wasNull()) expiresAt[0] = expiry;
+                        return readStoredObject(rs, cache != null && shareCachedObjects ? new ConcurrentHashMap<>() : null);
+                    }
+                    return null;
+                }
+            });
+            if (stored != null && cache != null) {
+                cache.put(cacheKey, stored, stamp, expiresAt[0]);
+            }
+            return stored;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to retrieve object", e);
+            return null;
+        }
+    }
+
+    // ==================== SESSION SUPPORT ====================
+
+    /**
+     * Everything stored under one identifier, in the encoded form used by the tables
+     */
+    record IdentifierSnapshot(Map<String, Map<String, StoredValue>> data, Map<String, String> tags,
+                              Map<String, StoredObject> objects) {}
+
+    StoredValue encode(Object value) {
+        return new StoredValue(encodeValue(value), getValueType(value));
+    }
+
+    <T> T decode(StoredValue stored, Class<T> expectedType) {
+        return deserializeValue(stored.value(), stored.valueType(), expectedType);
+    }
+
+    StoredObject encodeObject(Object object) {
+        return new StoredObject(gson.toJson(object), "JSON", null);
+    }
+
+    /**
+     * Read all data types starting with dataTypePrefix, the tags and every object stored under one identifier
+     * in a single read transaction
+     */
+    IdentifierSnapshot loadIdentifier(String dataTypePrefix, String tagTargetType, String identifier) throws SQLException {
+        // A range on data_type lets idx_data_identifier_type serve the prefix match; the compact layout ranges over
+        // the interned names instead and probes the primary key once per matching type
+        String upperBound = prefixUpperBound(dataTypePrefix);
+        String legacyDataSql = """
+            SELECT data_type, data_key, data_value, value_num, value_type, expires_at FROM data_storage
+            WHERE identifier = ?1 AND data_type >= ?2%s AND %s
+        """.formatted(upperBound == null ? "" : " AND data_type < ?3", NOT_EXPIRED);
+        String compactDataSql = """
+            SELECT data_type, data_key, data_value, value_num, value_type, expires_at FROM data_compact
+            WHERE data_type IN (SELECT id FROM data_names WHERE name >= ?2%s) AND identifier = ?1 AND %s
+        """.formatted(upperBound == null ? "" : " AND name < ?3", NOT_EXPIRED);
+        String tagSql = "SELECT tag_name, tag_value FROM data_tags WHERE target_type = ? AND target_id = ? AND " + NOT_EXPIRED;
+        String objectSql = "SELECT object_type, object_data, data_format FROM object_storage WHERE object_id = ? AND " + NOT_EXPIRED;
+
+        List<WriteBehindBuffer.DataWrite> pendingData = new ArrayList<>();
+        List<WriteBehindBuffer.ObjectWrite> pendingObjects = new ArrayList<>();
+        WriteBehindBuffer[] buffers = writeBehind;
+        if (buffers != null) {
+            for (WriteBehindBuffer buffer : buffers) {
+                pendingData.addAll(buffer.getDataForIdentifier(identifier));
+                pendingObjects.addAll(buffer.getObjectsForId(identifier));
+            }
+        }
+        WriteBehindBuffer tagBuffer = writeBehind(tagTargetType);
+        List<WriteBehindBuffer.TagWrite> pendingTags = tagBuffer != null ? tagBuffer.getTags(tagTargetType, identifier) : List.of();
+
+        IdentifierSnapshot snapshot = new IdentifierSnapshot(new HashMap<>(), new HashMap<>(), new HashMap<>());
+        DatabaseConnection tagShard = shards.forType(tagTargetType);
+        // Data types sharing the prefix and objects with this id can live on any shard, so each one is read
+        for (DatabaseConnection shard : shards.getShards()) {
+            timedRead(shard, "loadIdentifier", dataTypePrefix, null, conn -> inTransaction(conn, () -> {
+                DataLayout layout = shard.getDataLayout();
+                PreparedStatement stmt = shard.prepareCached(conn, layout.isCompact() ? compactDataSql : legacyDataSql);
+                layout.bindIdentifier(stmt, 1, identifier);
+                stmt.setString(2, dataTypePrefix);
+                if (upperBound != null) stmt.setString(3, upperBound);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String valueType = rs.getString("value_type");
+                        long expiresAt = rs.getLong("expires_at");
+                        StoredValue stored = new StoredValue(readValue(rs, valueType), valueType, rs.wasNull() ? null : expiresAt);
+                        snapshot.data().computeIfAbsent(layout.getName(rs, "data_type"), type -> new HashMap<>())
+                                .put(layout.getName(rs, "data_key"), stored);
+                    }
+                }
+
+                if (shard == tagShard) {
+                    stmt = shard.prepareCached(conn, tagSql);
+                    stmt.setString(1, tagTargetType);
+                    stmt.setString(2, identifier);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            snapshot.tags().put(rs.getString("tag_name"), rs.getString("tag_value"));
+                        }
+                    }
+                }
+
+                stmt = shard.prepareCached(conn, objectSql);
+                stmt.setString(1, identifier);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        snapshot.objects().put(rs.getString("object_type"), readStoredObject(rs, null));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (WriteBehindBuffer.DataWrite write : pendingData) {
+            if (write.dataType().startsWith(dataTypePrefix)) {
+                snapshot.data().computeIfAbsent(write.dataType(), type -> new HashMap<>())
+                        .put(write.key(), new StoredValue(write.value(), write.valueType()));
+            }
+        }
+        pendingTags.forEach(write -> snapshot.tags().put(write.tagName(), write.tagValue()));
+        pendingObjects.forEach(write -> snapshot.objects().put(write.objectType(), new StoredObject(write.data(), write.format(), null)));
+        return snapshot;
+    }
+
+    /**
+     * Write upserts and key deletions for one identifier together, through the write-behind buffer when enabled
+     */
+    boolean applyChanges(String identifier, WriteBehindBuffer.Batch upserts, Map<String, Set<String>> removedKeys) {
+        WriteBehindBuffer[] buffers = writeBehind;
+        if (buffers != null && removedKeys.isEmpty()) {
+            bufferBatch(upserts);
+            return true;
+        }
+
+        // Every shard commits its own part in one transaction
+        Map<Integer, WriteBehindBuffer.Batch> upsertsByShard = byShard(upserts);
+        Map<Integer, Map<String, Set<String>>> removedByShard = new TreeMap<>();
+        removedKeys.forEach((dataType, keys) ->
+                removedByShard.computeIfAbsent(shards.shardIndex(dataType), s -> new HashMap<>()).put(dataType, keys));
+        Set<Integer> touched = new TreeSet<>(upsertsByShard.keySet());
+        touched.addAll(removedByShard.keySet());
+
+        for (int shard : touched) {
+            WriteBehindBuffer buffer = buffers != null ? buffers[shard] : null;
+            WriteBehindBuffer.Batch shardUpserts = upsertsByShard.getOrDefault(shard, WriteBehindBuffer.Batch.EMPTY);
+            Map<String, Set<String>> shardRemoved = removedByShard.getOrDefault(shard, Map.of());
+            try {
+                DatabaseConnection connection = shards.getShards().get(shard);
+                timedWrite(connection, "applyChanges", null, null, conn -> {
+                    try {
+                        DataLayout layout = connection.getDataLayout();
+                        if (buffer == null) internNames(conn, layout, shardUpserts);
+                        int written = inTransaction(conn, () -> {
+                            deleteKeys(connection, conn, buffer, identifier, shardRemoved);
+                            // Buffered upserts are queued below so they stay ordered behind earlier buffered writes
+                            return buffer == null ? writeBatch(connection, conn, shardUpserts) : 0;
+                        });
+                        shardRemoved.forEach((dataType, keys) -> keys.forEach(key -> trackScore(dataType, identifier, key, null, null)));
+                        if (buffer == null) {
+                            shardUpserts.data().forEach(write -> trackScore(write.dataType(), write.identifier(), write.key(), write.value(), null));
+                        }
+                        return written;
+                    } finally {
+                        shardRemoved.keySet().forEach(dataType -> invalidateData(dataType, identifier));
+                        shardUpserts.data().forEach(write -> invalidateData(write.dataType(), write.identifier()));
+                        shardUpserts.objects().forEach(write -> invalidateObject(write.objectType(), write.objectId()));
+                    }
+                });
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Failed to write changes for " + identifier, e);
+                return false;
+            }
+        }
+
+        if (buffers != null) {
+            bufferBatch(upserts);
+        }
+        return true;
+    }
+
+    private void bufferBatch(WriteBehindBuffer.Batch upserts) {
+        upserts.data().forEach(write -> {
+            writeBehind(write.dataType()).addData(write);
+            trackScore(write.dataType(), write.identifier(), write.key(), write.value(), null);
+        });
+        upserts.objects().forEach(write -> writeBehind(write.objectType()).addObject(write));
+        upserts.tags().forEach(write -> writeBehind(write.targetType()).addTag(write));
+    }
+
+    /**
+     * Split a batch into one part per shard
      */
-    public String getData(String dataType, String identifier, String key) {
-        return getData(dataType, identifier, key, String.class);
+    private Map<Integer, WriteBehindBuffer.Batch> byShard(WriteBehindBuffer.Batch batch) {
+        if (!shards.isSharded()) {
+            return batch.isEmpty() ? Map.of() : Map.of(0, batch);
+        }
+        Map<Integer, WriteBehindBuffer.Batch> parts = new TreeMap<>();
+        Function<Integer, WriteBehindBuffer.Batch> part = shard -> parts.computeIfAbsent(shard,
+                s -> new WriteBehindBuffer.Batch(new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+        batch.data().forEach(write -> part.apply(shards.shardIndex(write.dataType())).data().add(write));
+        batch.objects().forEach(write -> part.apply(shards.shardIndex(write.objectType())).objects().add(write));
+        batch.tags().forEach(write -> part.apply(shards.shardIndex(write.targetType())).tags().add(write));
+        return parts;
+    }
+
+    private void deleteKeys(DatabaseConnection shard, Connection conn, WriteBehindBuffer buffer, String identifier,
+                            Map<String, Set<String>> removedKeys) throws SQLException {
+        if (removedKeys.isEmpty()) return;
+
+        DataLayout layout = shard.getDataLayout();
+        PreparedStatement stmt = shard.prepareCached(conn,
+                layout.sql("DELETE FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ?"));
+        for (Map.Entry<String, Set<String>> entry : removedKeys.entrySet()) {
+            for (String key : entry.getValue()) {
+                if (buffer != null) {
+                    buffer.discardDataKey(entry.getKey(), identifier, key);
+                }
+                bindDataKey(conn, layout, stmt, entry.getKey(), identifier, key, false);
+                stmt.addBatch();
+            }
+        }
+        stmt.executeBatch();
     }
 
     /**
-     * Get all data for a specific type and identifier
+     * Run sqlTemplate (with one %s for the IN list) for every chunk of ids, padding each chunk to a fixed size.
+     * With a layout, firstParam and ids are bound as a data type and identifiers, otherwise as plain text.
      */
-    public Map<String, Object> getAllData(String dataType, String identifier) {
-        Map<String, Object> data = new HashMap<>();
-        String sql = "SELECT data_key, data_value, value_type FROM data_storage WHERE data_type = ? AND identifier = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, dataType);
-            stmt.setString(2, identifier);
+    private <T> void queryInChunks(Connection conn, DataLayout layout, String sqlTemplate, String firstParam, List<String> ids,
+                                   ResultSetHandler<T> handler) throws SQLException {
+        int maxSize = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+        for (int from = 0; from < ids.size(); from += maxSize) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + maxSize));
+            int size = IN_LIST_SIZES[0];
+            for (int candidate : IN_LIST_SIZES) {
+                size = candidate;
+                if (candidate >= chunk.size()) break;
+            }
 
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String key = rs.getString("data_key");
-                String value = rs.getString("data_value");
-                String valueType = rs.getString("value_type");
-                data.put(key, deserializeValue(value, valueType, Object.class));
+            PreparedStatement stmt = shards.forType(firstParam).prepareCached(conn, String.format(sqlTemplate, placeholders(size)));
+            if (layout != null) {
+                layout.bindName(conn, stmt, 1, firstParam, false);
+            } else {
+                stmt.setString(1, firstParam);
+            }
+            for (int i = 0; i < size; i++) {
+                // Repeating the last id matches nothing new
+                String id = chunk.get(Math.min(i, chunk.size() - 1));
+                if (layout != null) {
+                    layout.bindIdentifier(stmt, i + 2, id);
+                } else {
+                    stmt.setString(i + 2, id);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                handler.handle(rs);
             }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to retrieve all data", e);
         }
-        return data;
     }
 
-    // ==================== OBJECT STORAGE ====================
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
 
     /**
-     * Store any complex object as JSON
+     * Smallest string greater than every string starting with prefix, or null if the range has no upper end
+     * (an empty prefix or one made only of U+FFFF)
      */
-    public boolean storeObject(String objectType, String objectId, Object object) {
-        return storeObject(objectType, objectId, object, "JSON");
+    static String prefixUpperBound(String prefix) {
+        int last = prefix.length() - 1;
+        // A trailing U+FFFF cannot be incremented, so the character before it is
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) last--;
+        if (last < 0) return null;
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
     }
 
+    // ==================== WRITE-BEHIND ====================
+
     /**
-     * Store object with custom format
+     * Buffer storeData/storeObject/addTag and commit them in groups every flushIntervalMs or batchSize entries
      */
-    public boolean storeObject(String objectType, String objectId, Object object, String format) {
-        String sql = """
-            INSERT OR REPLACE INTO object_storage (object_type, object_id, object_data, data_format, updated_at)
-            VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)
-        """;
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, objectType);
-            stmt.setString(2, objectId);
-
-            String serializedData;
-            if ("JSON".equals(format)) {
-                serializedData = gson.toJson(object);
-            } else {
-                serializedData = object.toString();
-            }
+    public synchronized void enableWriteBehind(long flushIntervalMs, int batchSize, int maxPending) {
+        if (writeBehind != null) return;
+        WriteBehindBuffer[] buffers = new WriteBehindBuffer[shards.getShards().size()];
+        for (int i = 0; i < buffers.length; i++) {
+            int shard = i;
+            buffers[i] = new WriteBehindBuffer(logger, () -> flushShard(shard), flushIntervalMs, batchSize, maxPending);
+        }
+        writeBehind = buffers;
+    }
 
-            stmt.setString(3, serializedData);
-            stmt.setString(4, format);
+    public boolean isWriteBehindEnabled() {
+        return writeBehind != null;
+    }
 
-            return stmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to store object", e);
-            return false;
+    /**
+     * Number of buffered writes not yet handed to the database
+     */
+    public int getPendingWriteCount() {
+        WriteBehindBuffer[] buffers = writeBehind;
+        if (buffers == null) return 0;
+        int pending = 0;
+        for (WriteBehindBuffer buffer : buffers) {
+            pending += buffer.size();
         }
+        return pending;
     }
 
     /**
-     * Get object with type safety
+     * Commit all buffered writes, in a single transaction per shard
      */
-    public <T> T getObject(String objectType, String objectId, Class<T> expectedType) {
-        String sql = "SELECT object_data, data_format FROM object_storage WHERE object_type = ? AND object_id = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, objectType);
-            stmt.setString(2, objectId);
-
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                String data = rs.getString("object_data");
-                String format = rs.getString("data_format");
-
-                if ("JSON".equals(format)) {
-                    return gson.fromJson(data, expectedType);
-                } else {
-                    // For non-JSON formats, return as string and let caller handle conversion
-                    return expectedType.cast(data);
-                }
-            }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to retrieve object", e);
+    public void flush() {
+        for (int shard = 0; shard < shards.getShards().size(); shard++) {
+            flushShard(shard);
         }
-        return null;
     }
 
     /**
-     * Get object as Map (for dynamic access)
+     * Commit the buffered writes of the shard holding type
      */
-    @SuppressWarnings("unchecked")
-    public Map<String, Object> getObjectAsMap(String objectType, String objectId) {
-        Type mapType = new TypeToken<Map<String, Object>>(){}.getType();
-        String sql = "SELECT object_data, data_format FROM object_storage WHERE object_type = ? AND object_id = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, objectType);
-            stmt.setString(2, objectId);
+    private void flush(String type) {
+        flushShard(shards.shardIndex(type));
+    }
 
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                String data = rs.getString("object_data");
-                String format = rs.getString("data_format");
+    private void flushShard(int shard) {
+        WriteBehindBuffer[] buffers = writeBehind;
+        if (buffers == null) return;
+        WriteBehindBuffer buffer = buffers[shard];
+        if (buffer.size() == 0) return;
 
-                if ("JSON".equals(format)) {
-                    return gson.fromJson(data, mapType);
+        DatabaseConnection connection = shards.getShards().get(shard);
+        try {
+            timedWrite(connection, "flush", null, null, conn -> {
+                WriteBehindBuffer.Batch batch = buffer.drain();
+                try {
+                    if (!batch.isEmpty()) {
+                        DataLayout layout = connection.getDataLayout();
+                        internNames(conn, layout, batch);
+                        inTransaction(conn, () -> writeBatch(connection, conn, batch));
+                    }
+                    // Invalidate before the overlay disappears so readers never fall back to a stale cache entry
+                    batch.data().forEach(write -> invalidateData(write.dataType(), write.identifier()));
+                    batch.objects().forEach(write -> invalidateObject(write.objectType(), write.objectId()));
+                    buffer.complete();
+                } catch (SQLException | RuntimeException e) {
+                    buffer.restore();
+                    throw e;
                 }
-            }
+                return batch.size();
+            });
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to retrieve object as map", e);
+            logger.log(Level.SEVERE, "Failed to flush write-behind buffer", e);
         }
-        return new HashMap<>();
     }
 
     /**
-     * Get all objects of a specific type
+     * Stop background work and force out everything still buffered
      */
-    public List<String> getObjectIds(String objectType) {
-        List<String> ids = new ArrayList<>();
-        String sql = "SELECT object_id FROM object_storage WHERE object_type = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, objectType);
-
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                ids.add(rs.getString("object_id"));
+    public synchronized void shutdown() {
+        WriteBehindBuffer[] buffers = writeBehind;
+        if (buffers != null) {
+            for (WriteBehindBuffer buffer : buffers) {
+                buffer.shutdown();
             }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to retrieve object IDs", e);
+            flush();
+            int left = getPendingWriteCount();
+            if (left > 0) {
+                logger.severe("Write-behind buffer still holds " + left + " writes after final flush!");
+            }
+            writeBehind = null;
         }
-        return ids;
     }
 
-    // ==================== TAGGING SYSTEM ====================
-
     /**
-     * Add a tag to any data
+     * Storage layout of the shard holding dataType; read it inside the write lock, the migrator swaps it while holding it
      */
-    public boolean addTag(String targetType, String targetId, String tagName, String tagValue) {
-        String sql = """
-            INSERT OR REPLACE INTO data_tags (target_type, target_id, tag_name, tag_value)
-            VALUES (?, ?, ?, ?)
-        """;
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, targetType);
-            stmt.setString(2, targetId);
-            stmt.setString(3, tagName);
-            stmt.setString(4, tagValue);
-
-            return stmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to add tag", e);
-            return false;
-        }
+    private DataLayout layout(String dataType) {
+        return shards.forType(dataType).getDataLayout();
     }
 
-    /**
-     * Add a simple tag without value
-     */
-    public boolean addTag(String targetType, String targetId, String tagName) {
-        return addTag(targetType, targetId, tagName, null);
+    private WriteBehindBuffer writeBehind(String type) {
+        WriteBehindBuffer[] buffers = writeBehind;
+        return buffers != null ? buffers[shards.shardIndex(type)] : null;
     }
 
     /**
-     * Get all tags for a target
+     * Intern the data types and keys of a batch before its transaction starts
      */
-    public Map<String, String> getTags(String targetType, String targetId) {
-        Map<String, String> tags = new HashMap<>();
-        String sql = "SELECT tag_name, tag_value FROM data_tags WHERE target_type = ? AND target_id = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, targetType);
-            stmt.setString(2, targetId);
+    private void internNames(Connection conn, DataLayout layout, WriteBehindBuffer.Batch batch) throws SQLException {
+        if (!layout.isCompact() || batch.data().isEmpty()) return;
+        Map<String, Set<String>> keys = new HashMap<>();
+        batch.data().forEach(write -> keys.computeIfAbsent(write.dataType(), type -> new HashSet<>()).add(write.key()));
+        for (Map.Entry<String, Set<String>> entry : keys.entrySet()) {
+            layout.intern(conn, entry.getKey(), entry.getValue());
+        }
+    }
 
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                tags.put(rs.getString("tag_name"), rs.getString("tag_value"));
+    private int writeBatch(DatabaseConnection shard, Connection conn, WriteBehindBuffer.Batch batch) throws SQLException {
+        DataLayout layout = shard.getDataLayout();
+        if (!batch.data().isEmpty()) {
+            PreparedStatement stmt = shard.prepareCached(conn, layout.sql(UPSERT_DATA_SQL));
+            for (WriteBehindBuffer.DataWrite write : batch.data()) {
+                bindDataRow(conn, layout, stmt, write.dataType(), write.identifier(), write.key(), write.value(), write.valueType(), write.metadata(), null);
+                stmt.addBatch();
             }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to retrieve tags", e);
+            stmt.executeBatch();
         }
-        return tags;
+        if (!batch.objects().isEmpty()) {
+            PreparedStatement stmt = shard.prepareCached(conn, UPSERT_OBJECT_SQL);
+            for (WriteBehindBuffer.ObjectWrite write : batch.objects()) {
+                bindObjectRow(stmt, write.objectType(), write.objectId(), write.data(), write.format(), null);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        if (!batch.tags().isEmpty()) {
+            PreparedStatement stmt = shard.prepareCached(conn, UPSERT_TAG_SQL);
+            for (WriteBehindBuffer.TagWrite write : batch.tags()) {
+                stmt.setString(1, write.targetType());
+                stmt.setString(2, write.targetId());
+                stmt.setString(3, write.tagName());
+                stmt.setString(4, write.tagValue());
+                stmt.setNull(5, Types.BIGINT);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        return batch.size();
     }
 
+    // ==================== PRIVATE HELPER METHODS ====================
+
     /**
-     * Find all targets with a specific tag
+     * Work performed inside a transaction on the writer connection
      */
-    public List<String> findByTag(String targetType, String tagName, String tagValue) {
-        List<String> targets = new ArrayList<>();
-        String sql = "SELECT target_id FROM data_tags WHERE target_type = ? AND tag_name = ? AND tag_value = ?";
+    @FunctionalInterface
+    interface SqlWork<T> {
+        T run() throws SQLException;
+    }
 
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, targetType);
-            stmt.setString(2, tagName);
-            stmt.setString(3, tagValue);
+    /**
+     * Time work on a reader connection of the shard holding type and record it under operation and type
+     */
+    private <T> T timedRead(String operation, String type, DatabaseConnection.SqlFunction<T> work) throws SQLException {
+        return timedRead(shards.forType(type), operation, type, null, work);
+    }
 
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                targets.add(rs.getString("target_id"));
-            }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to find by tag", e);
+    private <T> T timedRead(DatabaseConnection shard, String operation, String type, String detail,
+                            DatabaseConnection.SqlFunction<T> work) throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = shard.withReadConnection(work);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(operation, type, start, failed, detail);
         }
-        return targets;
     }
 
-    // ==================== CONVENIENCE METHODS ====================
-
     /**
-     * Store player data dynamically
+     * Time work on the writer connection of the shard holding type, including the wait for the write lock
      */
-    public boolean storePlayerData(Player player, String category, Map<String, Object> data) {
-        return storeDataBatch("player_" + category, player.getUniqueId().toString(), data);
+    private <T> T timedWrite(String operation, String type, DatabaseConnection.SqlFunction<T> work) throws SQLException {
+        return timedWrite(shards.forType(type), operation, type, null, work);
+    }
+
+    private <T> T timedWrite(DatabaseConnection shard, String operation, String type, String detail,
+                             DatabaseConnection.SqlFunction<T> work) throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = shard.withWriteConnection(work);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(operation, type, start, failed, detail);
+        }
     }
 
     /**
-     * Get player data dynamically
+     * Run work in a single transaction (caller must hold the connection)
      */
-    public Map<String, Object> getPlayerData(Player player, String category) {
-        return getAllData("player_" + category, player.getUniqueId().toString());
+    <T> T inTransaction(Connection conn, SqlWork<T> work) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            T result = work.run();
+            conn.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                logger.log(Level.SEVERE, "Failed to rollback batch operation", rollbackEx);
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Failed to reset auto-commit", e);
+            }
+        }
     }
 
     /**
-     * Store entity data dynamically
+     * Capture entity state into a plain map (must run on the main thread)
      */
-    public boolean storeEntityData(Entity entity, Map<String, Object> data) {
+    Map<String, Object> entityDataSnapshot(Entity entity, Map<String, Object> data) {
         // Store basic location data
         Location loc = entity.getLocation();
         Map<String, Object> entityData = new HashMap<>(data);
@@ -386,93 +3138,79 @@ public class DatabaseAPI {
         entityData.put("y", loc.getY());
         entityData.put("z", loc.getZ());
         entityData.put("type", entity.getType().name());
-
-        return storeDataBatch("entity", entity.getUniqueId().toString(), entityData);
+        return entityData;
     }
 
     /**
-     * Store hologram data dynamically
+     * Capture hologram state into a plain map
      */
-    public boolean storeHologramData(String hologramId, Location location, List<String> lines, Map<String, Object> properties) {
+    Map<String, Object> hologramDataSnapshot(Location location, List<String> lines, Map<String, Object> properties) {
         Map<String, Object> hologramData = new HashMap<>();
         hologramData.put("world", location.getWorld().getName());
         hologramData.put("x", location.getX());
         hologramData.put("y", location.getY());
         hologramData.put("z", location.getZ());
-        hologramData.put("lines", lines);
+        hologramData.put("lines", new ArrayList<>(lines));
 
         if (properties != null) {
             hologramData.putAll(properties);
         }
-
-        return storeDataBatch("hologram", hologramId, hologramData);
+        return hologramData;
     }
 
-    // ==================== UTILITY METHODS ====================
-
     /**
-     * Delete all data for a specific type and identifier
+     * Bind an object row, compressing large JSON payloads into a BLOB
      */
-    public boolean deleteData(String dataType, String identifier) {
-        String sql = "DELETE FROM data_storage WHERE data_type = ? AND identifier = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, dataType);
-            stmt.setString(2, identifier);
-
-            return stmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to delete data", e);
-            return false;
+    private void bindObjectRow(PreparedStatement stmt, String objectType, String objectId, String data, String format,
+                               Long expiresAt) throws SQLException {
+        stmt.setString(1, objectType);
+        stmt.setString(2, objectId);
+        stmt.setObject(5, expiresAt, Types.BIGINT);
+
+        int threshold = compressionThreshold;
+        if (threshold > 0 && "JSON".equals(format) && data.length() >= threshold && !jsonQueryTypes.contains(objectType)) {
+            byte[] utf8 = data.getBytes(StandardCharsets.UTF_8);
+            byte[] compressed = compress(utf8);
+            // Tiny or already dense payloads are not worth the inflate on every read
+            if (compressed.length < utf8.length) {
+                stmt.setBytes(3, compressed);
+                stmt.setString(4, FORMAT_JSON_GZIP);
+                return;
+            }
         }
+        stmt.setString(3, data);
+        stmt.setString(4, format);
     }
 
     /**
-     * Delete specific data key
+     * Read the object_data and data_format columns of the current row, inflating compressed payloads
      */
-    public boolean deleteDataKey(String dataType, String identifier, String key) {
-        String sql = "DELETE FROM data_storage WHERE data_type = ? AND identifier = ? AND data_key = ?";
-
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            stmt.setString(1, dataType);
-            stmt.setString(2, identifier);
-            stmt.setString(3, key);
-
-            return stmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to delete data key", e);
-            return false;
+    private static StoredObject readStoredObject(ResultSet rs, Map<Class<?>, Object> decoded) throws SQLException {
+        String format = rs.getString("data_format");
+        if (FORMAT_JSON_GZIP.equals(format)) {
+            return new StoredObject(decompress(rs.getBytes("object_data")), "JSON", decoded);
         }
+        return new StoredObject(rs.getString("object_data"), format, decoded);
     }
 
-    /**
-     * Execute custom SQL query
-     */
-    public ResultSet executeQuery(String sql, Object... params) throws SQLException {
-        PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql);
-
-        for (int i = 0; i < params.length; i++) {
-            stmt.setObject(i + 1, params[i]);
+    private static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory compression failed", e);
         }
-
-        return stmt.executeQuery();
+        return out.toByteArray();
     }
 
-    /**
-     * Execute custom SQL update
-     */
-    public int executeUpdate(String sql, Object... params) throws SQLException {
-        try (PreparedStatement stmt = dbConnection.getConnection().prepareStatement(sql)) {
-            for (int i = 0; i < params.length; i++) {
-                stmt.setObject(i + 1, params[i]);
-            }
-
-            return stmt.executeUpdate();
+    private static String decompress(byte[] data) throws SQLException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Corrupt compressed object payload", e);
         }
     }
 
-    // ==================== PRIVATE HELPER METHODS ====================
-
     private String serializeValue(Object value) {
         if (value == null) return null;
 
@@ -497,9 +3235,93 @@ public class DatabaseAPI {
         return "OBJECT";
     }
 
+    /**
+     * Convert a value into its stored form: numbers and booleans stay native, everything else becomes text
+     */
+    private Object encodeValue(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Boolean) return value;
+        if (value instanceof Double || value instanceof Float) {
+            // Widening would turn 0.1f into 0.10000000149011612; going through the float's text keeps 0.1 as before
+            double number = value instanceof Float f ? Double.parseDouble(Float.toString(f)) : (Double) value;
+            // SQLite stores NaN as NULL, so non-finite numbers keep the text form
+            return Double.isFinite(number) ? number : serializeValue(value);
+        }
+        return serializeValue(value);
+    }
+
+    /**
+     * Bind dataType, identifier and (unless null) key as the first parameters; create interns new names for writes
+     */
+    private static void bindDataKey(Connection conn, DataLayout layout, PreparedStatement stmt, String dataType,
+                                    String identifier, String key, boolean create) throws SQLException {
+        layout.bindName(conn, stmt, 1, dataType, create);
+        layout.bindIdentifier(stmt, 2, identifier);
+        if (key != null) {
+            layout.bindName(conn, stmt, 3, key, create);
+        }
+    }
+
+    /**
+     * Bind one data_storage row; native values go to value_num, text to data_value
+     */
+    private void bindDataRow(Connection conn, DataLayout layout, PreparedStatement stmt, String dataType, String identifier,
+                             String key, Object encoded, String valueType, String metadata, Long expiresAt) throws SQLException {
+        bindDataKey(conn, layout, stmt, dataType, identifier, key, true);
+        if (encoded == null || encoded instanceof String) {
+            stmt.setString(4, (String) encoded);
+            stmt.setNull(5, Types.NULL);
+        } else {
+            stmt.setNull(4, Types.VARCHAR);
+            if (encoded instanceof Integer number) {
+                stmt.setInt(5, number);
+            } else if (encoded instanceof Long number) {
+                stmt.setLong(5, number);
+            } else if (encoded instanceof Double number) {
+                stmt.setDouble(5, number);
+            } else {
+                stmt.setInt(5, (Boolean) encoded ? 1 : 0);
+            }
+        }
+        stmt.setString(6, valueType);
+        stmt.setString(7, metadata);
+        stmt.setObject(8, expiresAt, Types.BIGINT);
+    }
+
+    /**
+     * Read a stored value without string parsing; rows not yet migrated fall back to their text form
+     */
+    private Object readValue(ResultSet rs, String valueType) throws SQLException {
+        switch (valueType) {
+            case "INTEGER": {
+                int number = rs.getInt("value_num");
+                if (!rs.wasNull()) return number;
+                break;
+            }
+            case "LONG": {
+                long number = rs.getLong("value_num");
+                if (!rs.wasNull()) return number;
+                break;
+            }
+            case "DOUBLE": {
+                double number = rs.getDouble("value_num");
+                if (!rs.wasNull()) return number;
+                break;
+            }
+            case "BOOLEAN": {
+                int flag = rs.getInt("value_num");
+                if (!rs.wasNull()) return flag != 0;
+                break;
+            }
+        }
+        return rs.getString("data_value");
+    }
+
     @SuppressWarnings("unchecked")
-    private <T> T deserializeValue(String value, String valueType, Class<T> expectedType) {
-        if (value == null) return null;
+    private <T> T deserializeValue(Object stored, String valueType, Class<T> expectedType) {
+        if (stored == null) return null;
+        if (!(stored instanceof String value)) {
+            return convertNative(stored, expectedType);
+        }
 
         try {
             switch (valueType) {
@@ -545,4 +3367,59 @@ public class DatabaseAPI {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Convert a native number or boolean to the requested type; integer types only take values they hold exactly
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T convertNative(Object value, Class<T> expectedType) {
+        if (expectedType == Object.class || expectedType.isInstance(value)) {
+            return (T) value;
+        }
+        if (expectedType == String.class) {
+            return (T) value.toString();
+        }
+        if (value instanceof Number number) {
+            try {
+                if (expectedType == Integer.class || expectedType == int.class) return (T) Integer.valueOf(Math.toIntExact(exactLong(number)));
+                if (expectedType == Long.class || expectedType == long.class) return (T) Long.valueOf(exactLong(number));
+                if (expectedType == Double.class || expectedType == double.class) return (T) Double.valueOf(number.doubleValue());
+                if (expectedType == Float.class || expectedType == float.class) return (T) Float.valueOf(number.floatValue());
+                if (expectedType == Short.class || expectedType == short.class) {
+                    int exact = Math.toIntExact(exactLong(number));
+                    if (exact != (short) exact) throw new ArithmeticException("short overflow");
+                    return (T) Short.valueOf((short) exact);
+                }
+                if (expectedType == Byte.class || expectedType == byte.class) {
+                    int exact = Math.toIntExact(exactLong(number));
+                    if (exact != (byte) exact) throw new ArithmeticException("byte overflow");
+                    return (T) Byte.valueOf((byte) exact);
+                }
+            } catch (ArithmeticException e) {
+                logger.log(Level.WARNING, "Failed to deserialize value: " + value + " to type: " + expectedType, e);
+                return null;
+            }
+        }
+        if (value instanceof Boolean flag && expectedType == boolean.class) {
+            return (T) flag;
+        }
+
+        logger.log(Level.WARNING, "Failed to deserialize value: " + value + " to type: " + expectedType);
+        return null;
+    }
+
+    /**
+     * The number as a long, or ArithmeticException if it has a fraction or is out of range
+     */
+    private static long exactLong(Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            double value = number.doubleValue();
+            // -2^63 is a long, 2^63 is not; NaN fails the first check
+            if (value != Math.rint(value) || value < -0x1p63 || value >= 0x1p63) {
+                throw new ArithmeticException("not an exact integer: " + number);
+            }
+            return (long) value;
+        }
+        return number.longValue();
+    }
+}
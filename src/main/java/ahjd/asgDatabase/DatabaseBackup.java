@@ -0,0 +1,315 @@
+package ahjd.asgDatabase;
+
+import org.sqlite.SQLiteConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshots the live database into a backup folder on a background thread while writers keep going, and keeps
+ * only the newest few snapshots. With sharding every shard file is copied under the same timestamp.
+ */
+public class DatabaseBackup {
+
+    public enum Method {
+        /**
+         * SQLite online backup API. By default every page is copied in one step; a stepwise copy restarts whenever
+         * another connection writes in between, so it only finishes on a quiet database.
+         */
+        ONLINE,
+        /**
+         * VACUUM INTO: a compacted copy written from a single read transaction
+         */
+        VACUUM
+    }
+
+    /**
+     * progress is 0..1 while running; the last* fields describe the most recent finished attempt
+     */
+    public record Status(boolean running, Method method, double progress, File lastBackup, long lastSizeBytes,
+                         long lastDurationMillis, long lastCompletedAt, String lastError) {}
+
+    private static final String FILE_SUFFIX = ".db";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final String TIMESTAMP_PATTERN = "-\\d{8}-\\d{6}\\.db";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT);
+    private static final int BUSY_SLEEP_MS = 100;
+    private static final int BUSY_RETRIES = 50;
+
+    private final List<DatabaseConnection> shards;
+    private final File backupFolder;
+    private final Logger logger;
+    private final Method method;
+    private final int keep;
+    private final int pagesPerStep;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicReference<CompletableFuture<File>> running = new AtomicReference<>();
+
+    private volatile double progress;
+    private volatile int completedShards;
+    private volatile File partialFile;
+    private volatile long expectedBytes;
+    private volatile File lastBackup;
+    private volatile long lastSizeBytes;
+    private volatile long lastDurationMillis;
+    private volatile long lastCompletedAt;
+    private volatile String lastError;
+    // The VACUUM INTO statement being executed, cancelled on shutdown
+    private volatile Statement activeStatement;
+    private volatile boolean stopping;
+
+    public DatabaseBackup(DatabaseConnection databaseConnection, File backupFolder, Logger logger,
+                          Method method, int keep, int pagesPerStep) {
+        this(List.of(databaseConnection), backupFolder, logger, method, keep, pagesPerStep);
+    }
+
+    /**
+     * Back up every shard, the primary first
+     */
+    public DatabaseBackup(List<DatabaseConnection> shards, File backupFolder, Logger logger,
+                          Method method, int keep, int pagesPerStep) {
+        this.shards = List.copyOf(shards);
+        this.backupFolder = backupFolder;
+        this.logger = logger;
+        this.method = method;
+        this.keep = Math.max(0, keep);
+        // SQLite copies everything in one step for a negative count
+        this.pagesPerStep = pagesPerStep <= 0 ? -1 : pagesPerStep;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AsgDatabase-Backup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Back up every intervalMinutes (0 = only on request)
+     */
+    public void start(long intervalMinutes) {
+        if (intervalMinutes <= 0) return;
+        scheduler.scheduleWithFixedDelay(this::backup, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Start a backup in the background. Completes with the snapshot of the primary file; while one is already
+     * running the running one is returned instead of starting another.
+     */
+    public CompletableFuture<File> backup() {
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> current = running.compareAndExchange(null, future);
+        if (current != null) return current;
+
+        try {
+            scheduler.execute(() -> run(future));
+        } catch (RejectedExecutionException e) {
+            running.set(null);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public boolean isRunning() {
+        return running.get() != null;
+    }
+
+    public Status getStatus() {
+        boolean active = isRunning();
+        return new Status(active, method, active ? currentProgress() : 0, lastBackup, lastSizeBytes,
+                lastDurationMillis, lastCompletedAt, lastError);
+    }
+
+    /**
+     * Finished snapshots of the primary file, newest first
+     */
+    public File[] listBackups() {
+        return listBackups(shards.get(0));
+    }
+
+    private File[] listBackups(DatabaseConnection shard) {
+        Pattern pattern = Pattern.compile(Pattern.quote(baseName(shard)) + TIMESTAMP_PATTERN);
+        File[] files = backupFolder.listFiles((dir, name) -> pattern.matcher(name).matches());
+        if (files == null) return new File[0];
+        Arrays.sort(files, Comparator.comparing(File::getName).reversed());
+        return files;
+    }
+
+    /**
+     * Stop scheduling and end a running backup before the caller closes the connections: VACUUM INTO is cancelled,
+     * an online copy cannot be interrupted and is waited for
+     */
+    public void shutdown() {
+        stopping = true;
+        scheduler.shutdownNow();
+        Statement statement = activeStatement;
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Could not cancel the running backup", e);
+            }
+        }
+        try {
+            while (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.info("Waiting for the running database backup to finish...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // A backup that was queued but never ran
+        CompletableFuture<File> pending = running.getAndSet(null);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    // ==================== INTERNALS ====================
+
+    private void run(CompletableFuture<File> future) {
+        long start = System.nanoTime();
+        String timestamp = LocalDateTime.now().format(FILE_TIME);
+        List<File> targets = new ArrayList<>();
+        List<File> partials = new ArrayList<>();
+        for (DatabaseConnection shard : shards) {
+            File target = new File(backupFolder, baseName(shard) + "-" + timestamp + FILE_SUFFIX);
+            targets.add(target);
+            partials.add(new File(backupFolder, target.getName() + PARTIAL_SUFFIX));
+        }
+        Throwable failure = null;
+
+        try {
+            Files.createDirectories(backupFolder.toPath());
+            completedShards = 0;
+            for (int i = 0; i < shards.size(); i++) {
+                if (stopping) throw new SQLException("Backup cancelled by shutdown");
+                File partial = partials.get(i);
+                Files.deleteIfExists(partial.toPath());
+                progress = 0;
+                expectedBytes = 0;
+                partialFile = partial;
+
+                if (method == Method.VACUUM) {
+                    vacuumInto(shards.get(i), partial);
+                } else {
+                    onlineBackup(shards.get(i), partial);
+                }
+                completedShards = i + 1;
+            }
+
+            // Only complete snapshots ever carry the final name
+            long size = 0;
+            for (int i = 0; i < shards.size(); i++) {
+                Files.move(partials.get(i).toPath(), targets.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                size += targets.get(i).length();
+            }
+            lastBackup = targets.get(0);
+            lastSizeBytes = size;
+            lastError = null;
+            logger.info(String.format(Locale.ROOT, "Backed up database to %s%s (%d KB in %d ms)", lastBackup.getName(),
+                    shards.size() > 1 ? " and " + (shards.size() - 1) + " shards" : "",
+                    lastSizeBytes / 1024, (System.nanoTime() - start) / 1_000_000));
+            shards.forEach(this::rotate);
+        } catch (SQLException | IOException | RuntimeException e) {
+            failure = e;
+            lastError = e.getMessage();
+            logger.log(Level.SEVERE, "Database backup failed", e);
+            partials.forEach(File::delete);
+        } finally {
+            partialFile = null;
+            lastDurationMillis = (System.nanoTime() - start) / 1_000_000;
+            lastCompletedAt = System.currentTimeMillis();
+            running.set(null);
+        }
+
+        if (failure == null) {
+            future.complete(targets.get(0));
+        } else {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    private void onlineBackup(DatabaseConnection databaseConnection, File partial) throws SQLException {
+        // The backup only reads the live database, so a query_only connection is enough
+        Connection conn = databaseConnection.openCursorConnection();
+        try {
+            int rc = conn.unwrap(SQLiteConnection.class).getDatabase().backup("main", partial.getAbsolutePath(),
+                    (remaining, pageCount) -> progress = pageCount == 0 ? 1 : (double) (pageCount - remaining) / pageCount,
+                    BUSY_SLEEP_MS, BUSY_RETRIES, pagesPerStep);
+            if (rc != 0) {
+                throw new SQLException("Backup stopped with SQLite result code " + rc);
+            }
+        } finally {
+            databaseConnection.closeCursorConnection(conn);
+        }
+    }
+
+    private void vacuumInto(DatabaseConnection databaseConnection, File partial) throws SQLException {
+        // VACUUM INTO counts as a write even though the live database is untouched, so query_only must be off
+        Connection conn = databaseConnection.openCursorConnection(false);
+        try {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT page_count * page_size FROM pragma_page_count, pragma_page_size")) {
+                expectedBytes = rs.next() ? rs.getLong(1) : 0;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("VACUUM INTO ?")) {
+                stmt.setString(1, partial.getAbsolutePath());
+                activeStatement = stmt;
+                // shutdown may have missed the statement
+                if (stopping) throw new SQLException("Backup cancelled by shutdown");
+                stmt.execute();
+            } finally {
+                activeStatement = null;
+            }
+        } finally {
+            databaseConnection.closeCursorConnection(conn);
+        }
+    }
+
+    private double currentProgress() {
+        return Math.min(0.99, (completedShards + currentShardProgress()) / shards.size());
+    }
+
+    private double currentShardProgress() {
+        if (method == Method.ONLINE) return progress;
+        // VACUUM INTO reports nothing, so estimate from how much of the file has been written
+        File partial = partialFile;
+        long expected = expectedBytes;
+        if (partial == null || expected <= 0) return 0;
+        return Math.min(1, (double) partial.length() / expected);
+    }
+
+    /**
+     * Database.db -> Database, Database-shard-1.db -> Database-shard-1
+     */
+    private static String baseName(DatabaseConnection shard) {
+        String name = shard.getDatabaseFile().getName();
+        return name.endsWith(FILE_SUFFIX) ? name.substring(0, name.length() - FILE_SUFFIX.length()) : name;
+    }
+
+    private void rotate(DatabaseConnection shard) {
+        if (keep == 0) return;
+        File[] backups = listBackups(shard);
+        for (int i = keep; i < backups.length; i++) {
+            if (backups[i].delete()) {
+                logger.info("Deleted old backup " + backups[i].getName());
+            } else {
+                logger.warning("Could not delete old backup " + backups[i].getName());
+            }
+        }
+    }
+}
@@ -2,97 +2,391 @@ package ahjd.asgDatabase;
 
 import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class DatabaseConnection {
 
-    private final JavaPlugin plugin;
+    private static final long READ_BORROW_TIMEOUT_MS = 10_000;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    // Keep the spatial entries of entity and hologram data in step with its world/x/y/z rows
+    static final String[] LOCATION_TRIGGERS = {"spatial_sync_insert", "spatial_sync_update", "spatial_sync_move", "spatial_sync_delete"};
+
+    private final File dataFolder;
+    private final Logger logger;
     private Connection connection;
     private final String databasePath;
+    private final int readPoolSize;
+    private final BlockingQueue<Connection> readConnections;
+    private final List<Connection> openReadConnections = new ArrayList<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Only this file's connections; statements for another shard's connection go through that shard
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final Set<Connection> cursorConnections = ConcurrentHashMap.newKeySet();
+    private final int statementCacheSize;
+    private final LongAdder writeCount = new LongAdder();
+    private volatile StorageSettings storageSettings = StorageSettings.DEFAULTS;
+    // Detected on connect
+    private volatile DataLayout dataLayout;
+
+    /**
+     * PRAGMAs applied to every connection. cacheSizeKib is per connection; the mmap region is shared by all of them.
+     * autoVacuum is NONE, FULL or INCREMENTAL and only changes an existing database after a full VACUUM.
+     */
+    public record StorageSettings(long cacheSizeKib, long mmapSizeBytes, int busyTimeoutMillis,
+                                  long journalSizeLimitBytes, int walAutocheckpointPages, String autoVacuum) {
+        public static final StorageSettings DEFAULTS =
+                new StorageSettings(8192, 256L << 20, 5000, 64L << 20, 1000, "INCREMENTAL");
+
+        public StorageSettings {
+            autoVacuum = autoVacuum.toUpperCase(Locale.ROOT);
+            if (!Set.of("NONE", "FULL", "INCREMENTAL").contains(autoVacuum)) {
+                throw new IllegalArgumentException("auto_vacuum must be NONE, FULL or INCREMENTAL: " + autoVacuum);
+            }
+        }
+    }
 
     public DatabaseConnection(JavaPlugin plugin) {
-        this.plugin = plugin;
-        this.databasePath = plugin.getDataFolder().getAbsolutePath() + File.separator + "Database.db";
+        this(plugin, 0);
+    }
+
+    public DatabaseConnection(JavaPlugin plugin, int readPoolSize) {
+        this(plugin, readPoolSize, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    public DatabaseConnection(JavaPlugin plugin, int readPoolSize, int statementCacheSize) {
+        this(plugin.getDataFolder(), plugin.getLogger(), readPoolSize, statementCacheSize);
+    }
+
+    /**
+     * Open Database.db in any folder, without a running server (benchmarks, tools)
+     */
+    public DatabaseConnection(File dataFolder, Logger logger, int readPoolSize, int statementCacheSize) {
+        this(dataFolder, "Database.db", logger, readPoolSize, statementCacheSize);
+    }
+
+    /**
+     * Open a database file other than Database.db, e.g. an extra shard
+     */
+    public DatabaseConnection(File dataFolder, String fileName, Logger logger, int readPoolSize, int statementCacheSize) {
+        this.dataFolder = dataFolder;
+        this.logger = logger;
+        this.databasePath = dataFolder.getAbsolutePath() + File.separator + fileName;
+        this.readPoolSize = Math.max(0, readPoolSize);
+        this.readConnections = new ArrayBlockingQueue<>(Math.max(1, this.readPoolSize));
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+    }
+
+    /**
+     * Replace the connection PRAGMAs; only connections opened afterwards (connect, reconnects, cursors) pick them up
+     */
+    public void setStorageSettings(StorageSettings storageSettings) {
+        this.storageSettings = storageSettings;
+    }
+
+    public StorageSettings getStorageSettings() {
+        return storageSettings;
+    }
+
+    /**
+     * Work performed with a borrowed JDBC connection
+     */
+    @FunctionalInterface
+    public interface SqlFunction<T> {
+        T apply(Connection connection) throws SQLException;
     }
 
     public boolean connect() {
         try {
             // Create plugin data folder if it doesn't exist
-            if (!plugin.getDataFolder().exists()) {
-                plugin.getDataFolder().mkdirs();
+            if (!dataFolder.exists()) {
+                dataFolder.mkdirs();
             }
 
             // Load SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
 
-            // Create connection
-            connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-
-            // Enable foreign keys and other optimizations
-            Statement stmt = connection.createStatement();
-            stmt.execute("PRAGMA foreign_keys = ON");
-            stmt.execute("PRAGMA journal_mode = WAL");
-            stmt.execute("PRAGMA synchronous = NORMAL");
-            stmt.execute("PRAGMA cache_size = 1000");
-            stmt.execute("PRAGMA temp_store = MEMORY");
-            stmt.close();
+            // Create the single writer connection
+            connection = openConnection(false);
 
             // Create the universal table structure
+            dataLayout = new DataLayout(this, isView(DataLayout.LEGACY_TABLE));
             createUniversalTables();
+            checkAutoVacuum();
+
+            // Read-only connections run in parallel with the writer thanks to WAL
+            openReadConnections();
 
-            plugin.getLogger().info("Connected to SQLite database: " + databasePath);
+            logger.info("Connected to SQLite database: " + databasePath);
             return true;
 
         } catch (ClassNotFoundException e) {
-            plugin.getLogger().log(Level.SEVERE, "SQLite JDBC driver not found!", e);
+            logger.log(Level.SEVERE, "SQLite JDBC driver not found!", e);
             return false;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to connect to database!", e);
+            logger.log(Level.SEVERE, "Failed to connect to database!", e);
             return false;
         }
     }
 
     public void disconnect() {
+        closeReadConnections();
+        cursorConnections.forEach(this::closeCursorConnection);
         try {
             if (connection != null && !connection.isClosed()) {
+                // Refresh statistics for tables whose query plans would benefit, cheap when nothing changed
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA optimize");
+                } catch (SQLException e) {
+                    logger.log(Level.FINE, "PRAGMA optimize failed", e);
+                }
+                closeStatementCache(connection);
                 connection.close();
-                plugin.getLogger().info("Database connection closed.");
+                logger.info("Database connection closed.");
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.WARNING, "Error closing database connection", e);
+            logger.log(Level.WARNING, "Error closing database connection", e);
         }
     }
 
+    /**
+     * Get the writer connection (callers that write should prefer withWriteConnection)
+     */
     public Connection getConnection() {
         try {
             if (connection == null || connection.isClosed()) {
+                // Statements prepared on the dead connection are unusable
+                if (connection != null) {
+                    closeStatementCache(connection);
+                }
+                closeReadConnections();
                 connect();
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.WARNING, "Failed to check connection status", e);
+            logger.log(Level.WARNING, "Failed to check connection status", e);
         }
         return connection;
     }
 
+    /**
+     * Run work on the writer connection while holding the exclusive write lock
+     */
+    public <T> T withWriteConnection(SqlFunction<T> work) throws SQLException {
+        writeLock.lock();
+        writeCount.increment();
+        try {
+            return work.apply(getConnection());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Run work on a pooled read-only connection, or on the writer when no readers are configured
+     */
+    public <T> T withReadConnection(SqlFunction<T> work) throws SQLException {
+        if (readPoolSize == 0) {
+            return withWriteConnection(work);
+        }
+
+        Connection reader = borrowReadConnection();
+        try {
+            return work.apply(reader);
+        } finally {
+            readConnections.offer(reader);
+        }
+    }
+
+    /**
+     * Open a separate read-only connection for a long-lived cursor, so it holds neither a pooled reader nor the
+     * write lock. Release it with closeCursorConnection.
+     */
+    public Connection openCursorConnection() throws SQLException {
+        return openCursorConnection(true);
+    }
+
+    /**
+     * Same as openCursorConnection, but readOnly = false leaves out query_only for statements such as VACUUM INTO
+     * that only write to another file
+     */
+    public Connection openCursorConnection(boolean readOnly) throws SQLException {
+        Connection conn = openConnection(readOnly);
+        cursorConnections.add(conn);
+        return conn;
+    }
+
+    public void closeCursorConnection(Connection conn) {
+        if (!cursorConnections.remove(conn)) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error closing cursor connection", e);
+        }
+    }
+
+    /**
+     * How universal data is stored in this file; switches to compact once SchemaMigrator has converted it
+     */
+    public DataLayout getDataLayout() {
+        return dataLayout;
+    }
+
+    /**
+     * Switch to the compact layout (caller must hold the write connection, right after the migration committed)
+     */
+    void useCompactLayout() {
+        dataLayout = new DataLayout(this, true);
+    }
+
+    boolean isWriteConnection(Connection conn) {
+        return conn == connection;
+    }
+
+    public File getDatabaseFile() {
+        return new File(databasePath);
+    }
+
+    public File getWalFile() {
+        return new File(databasePath + "-wal");
+    }
+
+    /**
+     * Number of withWriteConnection calls so far; the maintenance task uses the rate to find quiet moments
+     */
+    public long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    public int getReadPoolSize() {
+        return readPoolSize;
+    }
+
+    /**
+     * Get a reusable prepared statement for a connection obtained from withWriteConnection/withReadConnection
+     * of this DatabaseConnection.
+     * The statement belongs to the cache: do not close it, and close its ResultSets before releasing the connection.
+     */
+    public PreparedStatement prepareCached(Connection conn, String sql) throws SQLException {
+        return statementCaches.computeIfAbsent(conn, c -> new StatementCache(c, statementCacheSize)).prepare(sql);
+    }
+
+    private void closeStatementCache(Connection conn) {
+        StatementCache cache = statementCaches.remove(conn);
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private Connection borrowReadConnection() throws SQLException {
+        Connection reader;
+        try {
+            reader = readConnections.poll(READ_BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+        if (reader == null) {
+            throw new SQLException("Timed out waiting for a read connection");
+        }
+
+        if (reader.isClosed()) {
+            // Replace readers that were closed underneath us (e.g. after a reconnect)
+            synchronized (openReadConnections) {
+                openReadConnections.remove(reader);
+                closeStatementCache(reader);
+                reader = openConnection(true);
+                openReadConnections.add(reader);
+            }
+        }
+        return reader;
+    }
+
+    private Connection openConnection(boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
+
+        // Enable foreign keys and other optimizations
+        StorageSettings settings = storageSettings;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys = ON");
+            if (!readOnly) {
+                // auto_vacuum must be set before journal_mode to take effect on a new database
+                stmt.execute("PRAGMA auto_vacuum = " + settings.autoVacuum());
+                stmt.execute("PRAGMA journal_mode = WAL");
+                stmt.execute("PRAGMA journal_size_limit = " + settings.journalSizeLimitBytes());
+                stmt.execute("PRAGMA wal_autocheckpoint = " + settings.walAutocheckpointPages());
+            }
+            stmt.execute("PRAGMA synchronous = NORMAL");
+            // Negative cache_size is in KiB rather than pages
+            stmt.execute("PRAGMA cache_size = " + -settings.cacheSizeKib());
+            stmt.execute("PRAGMA mmap_size = " + settings.mmapSizeBytes());
+            stmt.execute("PRAGMA temp_store = MEMORY");
+            stmt.execute("PRAGMA busy_timeout = " + settings.busyTimeoutMillis());
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only = ON");
+            }
+        }
+        return conn;
+    }
+
+    private void openReadConnections() throws SQLException {
+        synchronized (openReadConnections) {
+            for (int i = 0; i < readPoolSize; i++) {
+                Connection reader = openConnection(true);
+                openReadConnections.add(reader);
+                readConnections.offer(reader);
+            }
+        }
+    }
+
+    private void closeReadConnections() {
+        synchronized (openReadConnections) {
+            for (Connection reader : openReadConnections) {
+                closeStatementCache(reader);
+                try {
+                    reader.close();
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "Error closing read connection", e);
+                }
+            }
+            openReadConnections.clear();
+            readConnections.clear();
+        }
+    }
+
     private void createUniversalTables() throws SQLException {
         Statement stmt = connection.createStatement();
 
-        // Universal data storage table - can store ANY type of data
-        stmt.execute("""
-            CREATE TABLE IF NOT EXISTS data_storage (
-                id INTEGER PRIMARY KEY AUTOINCREMENT,
-                data_type TEXT NOT NULL,
-                identifier TEXT NOT NULL,
-                data_key TEXT NOT NULL,
-                data_value TEXT,
-                value_type TEXT NOT NULL DEFAULT 'STRING',
-                metadata TEXT,
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                UNIQUE(data_type, identifier, data_key)
-            )
-        """);
+        // Universal data storage table - can store ANY type of data (a view over data_compact once migrated)
+        if (!dataLayout.isCompact()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS data_storage (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    data_type TEXT NOT NULL,
+                    identifier TEXT NOT NULL,
+                    data_key TEXT NOT NULL,
+                    data_value TEXT,
+                    value_num, -- no declared type: numbers keep the storage class they were bound with
+                    value_type TEXT NOT NULL DEFAULT 'STRING',
+                    metadata TEXT,
+                    expires_at INTEGER, -- epoch millis, NULL = never
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    UNIQUE(data_type, identifier, data_key)
+                )
+            """);
+        }
 
         // Object collections table - for storing complex objects as JSON or serialized data
         stmt.execute("""
@@ -103,11 +397,14 @@ public class DatabaseConnection {
                 object_data TEXT NOT NULL,
                 data_format TEXT NOT NULL DEFAULT 'JSON',
                 version INTEGER DEFAULT 1,
+                expires_at INTEGER,
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 UNIQUE(object_type, object_id)
             )
         """);
+        // Object types queried with JSON functions, whose payloads are stored uncompressed
+        stmt.execute("CREATE TABLE IF NOT EXISTS object_json_types (object_type TEXT PRIMARY KEY) WITHOUT ROWID");
 
         // Relationships table - for linking different data pieces together
         stmt.execute("""
@@ -132,23 +429,178 @@ public class DatabaseConnection {
                 target_id TEXT NOT NULL,
                 tag_name TEXT NOT NULL,
                 tag_value TEXT,
+                expires_at INTEGER,
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 UNIQUE(target_type, target_id, tag_name)
             )
         """);
 
-        // Create indexes for optimal performance
-        stmt.execute("CREATE INDEX IF NOT EXISTS idx_data_type_identifier ON data_storage(data_type, identifier)");
-        stmt.execute("CREATE INDEX IF NOT EXISTS idx_data_key ON data_storage(data_key)");
+        // Spatial index - one R*Tree partitioned by a (data_type, world) "space" dimension
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS spatial_spaces (
+                id INTEGER PRIMARY KEY,
+                data_type TEXT NOT NULL,
+                world TEXT NOT NULL,
+                UNIQUE(data_type, world)
+            )
+        """);
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS spatial_points (
+                id INTEGER PRIMARY KEY,
+                data_type TEXT NOT NULL,
+                identifier TEXT NOT NULL,
+                UNIQUE(data_type, identifier)
+            )
+        """);
+        // The R*Tree keeps 32-bit bounds, the exact coordinates ride along as auxiliary columns
+        stmt.execute("""
+            CREATE VIRTUAL TABLE IF NOT EXISTS spatial_index USING rtree(
+                id, min_space, max_space, min_x, max_x, min_y, max_y, min_z, max_z,
+                +identifier TEXT, +px REAL, +py REAL, +pz REAL
+            )
+        """);
+        // Every write path moves or drops entity and hologram points, custom SQL and expiry included
+        for (String trigger : locationTriggers(dataLayout.isCompact())) {
+            stmt.execute(trigger);
+        }
+
+        // Columns added after the first release; existing databases get them here
+        if (!dataLayout.isCompact()) {
+            addColumnIfMissing(stmt, "data_storage", "value_num", "");
+            addColumnIfMissing(stmt, "data_storage", "expires_at", "INTEGER");
+        }
+        addColumnIfMissing(stmt, "object_storage", "expires_at", "INTEGER");
+        addColumnIfMissing(stmt, "data_tags", "expires_at", "INTEGER");
+
+        // Create indexes for optimal performance; the compact layout is clustered on its key and needs none of these
+        if (!dataLayout.isCompact()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_data_type_identifier ON data_storage(data_type, identifier)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_data_key ON data_storage(data_key)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_data_identifier_type ON data_storage(identifier, data_type)");
+        }
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_object_type ON object_storage(object_type)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_object_id ON object_storage(object_id)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_parent_relation ON data_relationships(parent_type, parent_id)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_child_relation ON data_relationships(child_type, child_id)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_tags ON data_tags(target_type, target_id)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_tag_name ON data_tags(tag_name)");
+        // Covers findByTag and every TagQuery lookup, expiry check included, without touching the table
+        stmt.execute("DROP INDEX IF EXISTS idx_tag_lookup");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_tag_lookup_expiry ON data_tags(target_type, tag_name, tag_value, target_id, expires_at)");
+        // Partial indexes: only expiring rows are indexed, so the sweeper finds them without a scan
+        if (!dataLayout.isCompact()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_data_expires ON data_storage(expires_at) WHERE expires_at IS NOT NULL");
+        }
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_object_expires ON object_storage(expires_at) WHERE expires_at IS NOT NULL");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_tag_expires ON data_tags(expires_at) WHERE expires_at IS NOT NULL");
 
         stmt.close();
-        plugin.getLogger().info("Universal database tables created/verified successfully!");
+        logger.info("Universal database tables created/verified successfully!");
+    }
+
+    private void checkAutoVacuum() throws SQLException {
+        String actual = List.of("NONE", "FULL", "INCREMENTAL").get(getAutoVacuumMode());
+        if (!actual.equals(storageSettings.autoVacuum())) {
+            logger.info("Database uses auto_vacuum " + actual + "; " + storageSettings.autoVacuum()
+                    + " takes effect after a full VACUUM");
+        }
+    }
+
+    /**
+     * Current auto_vacuum mode of the open database: 0 = NONE, 1 = FULL, 2 = INCREMENTAL
+     */
+    public int getAutoVacuumMode() throws SQLException {
+        return withWriteConnection(conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    private boolean isView(String name) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'view' AND name = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Triggers that re-derive the spatial entry of an entity or hologram from its world/x/y/z rows whenever one of
+     * them is inserted, updated or deleted; the point is dropped while any of them is missing or not a number
+     */
+    static List<String> locationTriggers(boolean compact) {
+        String table = compact ? DataLayout.COMPACT_TABLE : DataLayout.LEGACY_TABLE;
+        String moved = "(OLD.data_type IS NOT NEW.data_type OR OLD.identifier IS NOT NEW.identifier OR OLD.data_key IS NOT NEW.data_key)";
+        return List.of(
+                locationTrigger(LOCATION_TRIGGERS[0], "INSERT", table, isLocated(compact, "NEW"), syncLocation(compact, "NEW")),
+                locationTrigger(LOCATION_TRIGGERS[1], "UPDATE", table, isLocated(compact, "NEW"), syncLocation(compact, "NEW")),
+                // A row moved to another identifier or key by custom SQL leaves its old point behind
+                locationTrigger(LOCATION_TRIGGERS[2], "UPDATE", table, isLocated(compact, "OLD") + " AND " + moved, syncLocation(compact, "OLD")),
+                locationTrigger(LOCATION_TRIGGERS[3], "DELETE", table, isLocated(compact, "OLD"), syncLocation(compact, "OLD")));
+    }
+
+    private static String locationTrigger(String name, String event, String table, String when, String body) {
+        return "CREATE TRIGGER IF NOT EXISTS " + name + " AFTER " + event + " ON " + table + " WHEN " + when + " BEGIN " + body + " END";
+    }
+
+    private static String isLocated(boolean compact, String row) {
+        if (!compact) {
+            return row + ".data_type IN ('entity', 'hologram') AND " + row + ".data_key IN ('world', 'x', 'y', 'z')";
+        }
+        return row + ".data_type IN (SELECT id FROM data_names WHERE name IN ('entity', 'hologram')) AND " + row
+                + ".data_key IN (SELECT id FROM data_names WHERE name IN ('world', 'x', 'y', 'z'))";
+    }
+
+    /**
+     * Trigger body replacing the spatial entry of the identifier of row (NEW or OLD) with what its rows say now
+     */
+    private static String syncLocation(boolean compact, String row) {
+        String table = compact ? DataLayout.COMPACT_TABLE : DataLayout.LEGACY_TABLE;
+        // spatial_* tables hold the data type and identifier as text in both layouts. No OR IGNORE in here: the
+        // conflict policy of the statement firing the trigger would replace it
+        String type = compact ? "(SELECT name FROM data_names WHERE id = " + row + ".data_type)" : row + ".data_type";
+        String identifier = compact ? DataLayout.decodeIdentifierSql(row + ".identifier") : row + ".identifier";
+        String[] keys = {"world", "x", "y", "z"};
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = compact ? "(SELECT id FROM data_names WHERE name = '" + keys[i] + "')" : "'" + keys[i] + "'";
+        }
+        String rows = """
+            %1$s w
+            JOIN %1$s x ON x.data_type = w.data_type AND x.identifier = w.identifier AND x.data_key = %2$s
+            JOIN %1$s y ON y.data_type = w.data_type AND y.identifier = w.identifier AND y.data_key = %3$s
+            JOIN %1$s z ON z.data_type = w.data_type AND z.identifier = w.identifier AND z.data_key = %4$s
+        """.formatted(table, keys[1], keys[2], keys[3]);
+        String where = """
+            WHERE w.data_type = %1$s.data_type AND w.identifier = %1$s.identifier AND w.data_key = %2$s AND w.data_value IS NOT NULL
+              AND x.value_num IS NOT NULL AND y.value_num IS NOT NULL AND z.value_num IS NOT NULL
+        """.formatted(row, keys[0]);
+        return """
+            DELETE FROM spatial_index WHERE id IN (SELECT id FROM spatial_points WHERE data_type = %1$s AND identifier = %2$s);
+            DELETE FROM spatial_points WHERE data_type = %1$s AND identifier = %2$s;
+            INSERT INTO spatial_spaces (data_type, world) SELECT %1$s, w.data_value FROM %3$s %4$s
+              AND NOT EXISTS (SELECT 1 FROM spatial_spaces s WHERE s.data_type = %1$s AND s.world = w.data_value);
+            INSERT INTO spatial_points (data_type, identifier) SELECT %1$s, %2$s FROM %3$s %4$s;
+            INSERT INTO spatial_index
+            SELECT p.id, s.id, s.id, x.value_num, x.value_num, y.value_num, y.value_num, z.value_num, z.value_num,
+                   p.identifier, x.value_num, y.value_num, z.value_num
+            FROM %3$s
+            JOIN spatial_spaces s ON s.data_type = %1$s AND s.world = w.data_value
+            JOIN spatial_points p ON p.data_type = %1$s AND p.identifier = %2$s
+            %4$s;
+        """.formatted(type, identifier, rows, where);
+    }
+
+    private void addColumnIfMissing(Statement stmt, String table, String column, String definition) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return;
+            }
+        }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + (definition.isEmpty() ? "" : " " + definition));
+        logger.info("Added column " + table + "." + column);
     }
 
     public boolean isConnected() {
@@ -163,12 +615,16 @@ public class DatabaseConnection {
      * Create a custom table dynamically if needed for specific use cases
      */
     public boolean createCustomTable(String tableName, String tableDefinition) {
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" + tableDefinition + ")");
-            plugin.getLogger().info("Custom table '" + tableName + "' created successfully!");
+        try {
+            withWriteConnection(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    return stmt.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" + tableDefinition + ")");
+                }
+            });
+            logger.info("Custom table '" + tableName + "' created successfully!");
             return true;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to create custom table: " + tableName, e);
+            logger.log(Level.SEVERE, "Failed to create custom table: " + tableName, e);
             return false;
         }
     }
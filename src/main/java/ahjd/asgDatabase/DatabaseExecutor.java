@@ -0,0 +1,127 @@
+package ahjd.asgDatabase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class DatabaseExecutor {
+
+    private final Logger logger;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    // Last write queued on each lane; a lane's next write starts once the previous one is done
+    private final CompletableFuture<?>[] laneTails;
+
+    public DatabaseExecutor(Logger logger) {
+        this(logger, 1);
+    }
+
+    public DatabaseExecutor(Logger logger, int readThreads) {
+        this(logger, readThreads, 1);
+    }
+
+    /**
+     * writeLanes independent write queues, one per shard, so writes to different database files run in parallel
+     */
+    public DatabaseExecutor(Logger logger, int readThreads, int writeLanes) {
+        this.logger = logger;
+        this.laneTails = new CompletableFuture<?>[Math.max(1, writeLanes)];
+        Arrays.fill(laneTails, CompletableFuture.completedFuture(null));
+        this.writeExecutor = laneTails.length == 1
+                ? Executors.newSingleThreadExecutor(threadFactory("AsgDatabase-Writer"))
+                : Executors.newFixedThreadPool(laneTails.length, threadFactory("AsgDatabase-Writer"));
+        this.readExecutor = Executors.newFixedThreadPool(Math.max(1, readThreads), threadFactory("AsgDatabase-Reader"));
+    }
+
+    /**
+     * Run a write after every previously submitted write on every lane, in submission order. Used for work that
+     * may touch more than one shard.
+     */
+    public synchronized <T> CompletableFuture<T> submitWrite(Supplier<T> task) {
+        CompletableFuture<T> future = laneTails.length == 1
+                ? CompletableFuture.supplyAsync(task, writeExecutor)
+                : CompletableFuture.allOf(laneTails).handleAsync((ignored, error) -> task.get(), writeExecutor);
+        Arrays.fill(laneTails, future);
+        return future;
+    }
+
+    /**
+     * Run a write in submission order with the other writes on its lane (shard); lanes do not wait for each other
+     */
+    public synchronized <T> CompletableFuture<T> submitWrite(int lane, Supplier<T> task) {
+        if (laneTails.length == 1) return submitWrite(task);
+        int index = Math.floorMod(lane, laneTails.length);
+        CompletableFuture<T> future = laneTails[index].handleAsync((ignored, error) -> task.get(), writeExecutor);
+        laneTails[index] = future;
+        return future;
+    }
+
+    /**
+     * Run a read on the reader pool, after every previously submitted write has completed
+     */
+    public <T> CompletableFuture<T> submitRead(Supplier<T> task) {
+        CompletableFuture<?> writes;
+        synchronized (this) {
+            writes = laneTails.length == 1 ? laneTails[0] : CompletableFuture.allOf(laneTails);
+        }
+        return writes.handleAsync((ignored, error) -> task.get(), readExecutor);
+    }
+
+    public boolean isShutdown() {
+        return writeExecutor.isShutdown();
+    }
+
+    /**
+     * Stop accepting new work and wait for queued operations to finish
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        // Reads may be chained behind queued writes, so the reader pool is only closed once writes are drained
+        try {
+            if (laneTails.length > 1) {
+                // Writes chained behind another lane are only handed to the pool once that lane catches up
+                CompletableFuture<?> writes;
+                synchronized (this) {
+                    writes = CompletableFuture.allOf(laneTails);
+                }
+                try {
+                    writes.get(timeout, unit);
+                } catch (ExecutionException | TimeoutException e) {
+                    // Failed writes were already reported to their callers; a timeout is reported below
+                }
+            }
+            writeExecutor.shutdown();
+            if (!writeExecutor.awaitTermination(timeout, unit)) {
+                List<Runnable> dropped = writeExecutor.shutdownNow();
+                logger.severe("Timed out draining database queue, " + dropped.size() + " operations were dropped!");
+            }
+            readExecutor.shutdown();
+            if (!readExecutor.awaitTermination(timeout, unit)) {
+                readExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            readExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted while draining database queue", e);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
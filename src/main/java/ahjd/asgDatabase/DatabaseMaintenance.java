@@ -0,0 +1,264 @@
+package ahjd.asgDatabase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background WAL checkpoints, PRAGMA optimize and incremental vacuum, each run on the writer connection between writes.
+ * With sharding every shard file is maintained on its own.
+ */
+public class DatabaseMaintenance {
+
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String OPTIMIZE = "optimize";
+    public static final String INCREMENTAL_VACUUM = "incremental-vacuum";
+    public static final List<String> TASKS = List.of(CHECKPOINT, OPTIMIZE, INCREMENTAL_VACUUM);
+
+    /**
+     * lastRunAt is epoch millis, 0 when the task has not run yet
+     */
+    public record TaskStatus(String name, long runs, long lastRunAt, long lastDurationMillis, String lastResult) {}
+
+    // Bounds the rows ANALYZE samples per index so optimize stays fast on large tables
+    private static final int ANALYSIS_LIMIT = 1000;
+
+    private final List<DatabaseConnection> shards;
+    private final Logger logger;
+    private final long idleWritesPerTick;
+    private final long truncateWalBytes;
+    private final long optimizeIntervalMillis;
+    private final long vacuumIntervalMillis;
+    private final int vacuumMaxPages;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, TaskStatus> status = new ConcurrentHashMap<>();
+
+    // Per shard, only touched on the maintenance thread
+    private final long[] lastWriteCount;
+    private final boolean[] walCheckpointed;
+    private long nextOptimizeAt;
+    private long nextVacuumAt;
+
+    public DatabaseMaintenance(DatabaseConnection databaseConnection, Logger logger, long idleWritesPerTick,
+                               long truncateWalBytes, long optimizeIntervalMinutes, long vacuumIntervalMinutes,
+                               int vacuumMaxPages) {
+        this(List.of(databaseConnection), logger, idleWritesPerTick, truncateWalBytes, optimizeIntervalMinutes,
+                vacuumIntervalMinutes, vacuumMaxPages);
+    }
+
+    public DatabaseMaintenance(List<DatabaseConnection> shards, Logger logger, long idleWritesPerTick,
+                               long truncateWalBytes, long optimizeIntervalMinutes, long vacuumIntervalMinutes,
+                               int vacuumMaxPages) {
+        this.shards = List.copyOf(shards);
+        this.lastWriteCount = new long[shards.size()];
+        this.walCheckpointed = new boolean[shards.size()];
+        this.logger = logger;
+        this.idleWritesPerTick = Math.max(0, idleWritesPerTick);
+        this.truncateWalBytes = Math.max(0, truncateWalBytes);
+        this.optimizeIntervalMillis = TimeUnit.MINUTES.toMillis(Math.max(0, optimizeIntervalMinutes));
+        this.vacuumIntervalMillis = TimeUnit.MINUTES.toMillis(Math.max(0, vacuumIntervalMinutes));
+        this.vacuumMaxPages = Math.max(1, vacuumMaxPages);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AsgDatabase-Maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TASKS.forEach(name -> status.put(name, new TaskStatus(name, 0, 0, 0, "never run")));
+    }
+
+    public void start(long tickSeconds) {
+        long now = System.currentTimeMillis();
+        nextOptimizeAt = now + optimizeIntervalMillis;
+        nextVacuumAt = now + vacuumIntervalMillis;
+        for (int i = 0; i < shards.size(); i++) {
+            lastWriteCount[i] = shards.get(i).getWriteCount();
+        }
+        long tick = Math.max(1, tickSeconds);
+        scheduler.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Run one task now on the maintenance thread; a checkpoint requested this way always truncates the WAL
+     */
+    public CompletableFuture<String> runNow(String task) {
+        return CompletableFuture.supplyAsync(() -> switch (task) {
+            case CHECKPOINT -> checkpoint(allShards(), true);
+            case OPTIMIZE -> optimize();
+            case INCREMENTAL_VACUUM -> incrementalVacuum();
+            default -> throw new IllegalArgumentException("Unknown maintenance task: " + task);
+        }, scheduler);
+    }
+
+    /**
+     * One entry per task, in TASKS order
+     */
+    public List<TaskStatus> getStatus() {
+        List<TaskStatus> result = new ArrayList<>();
+        TASKS.forEach(name -> result.add(status.get(name)));
+        return result;
+    }
+
+    /**
+     * Combined size of the WAL files of all shards
+     */
+    public long getWalSize() {
+        long size = 0;
+        for (DatabaseConnection shard : shards) {
+            size += shard.getWalFile().length();
+        }
+        return size;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== SCHEDULING ====================
+
+    private void tick() {
+        try {
+            // A large WAL is truncated even under load; otherwise checkpoint only while writes are quiet
+            List<Integer> truncate = new ArrayList<>();
+            List<Integer> passive = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                long writesSinceTick = shards.get(i).getWriteCount() - lastWriteCount[i];
+                if (truncateWalBytes > 0 && shards.get(i).getWalFile().length() >= truncateWalBytes) {
+                    truncate.add(i);
+                } else if (writesSinceTick <= idleWritesPerTick && (writesSinceTick > 0 || !walCheckpointed[i])) {
+                    passive.add(i);
+                }
+            }
+            if (!truncate.isEmpty()) {
+                checkpoint(truncate, true);
+            }
+            if (!passive.isEmpty()) {
+                checkpoint(passive, false);
+            }
+
+            long now = System.currentTimeMillis();
+            if (optimizeIntervalMillis > 0 && now >= nextOptimizeAt) {
+                optimize();
+                nextOptimizeAt = now + optimizeIntervalMillis;
+            }
+            if (vacuumIntervalMillis > 0 && now >= nextVacuumAt) {
+                incrementalVacuum();
+                nextVacuumAt = now + vacuumIntervalMillis;
+            }
+            // The tasks above take the write lock too and must not count as load on the next tick
+            for (int i = 0; i < shards.size(); i++) {
+                lastWriteCount[i] = shards.get(i).getWriteCount();
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Database maintenance failed", e);
+        }
+    }
+
+    // ==================== TASKS ====================
+
+    /**
+     * PASSIVE copies what it can without waiting; TRUNCATE waits for readers, then resets the WAL file to zero bytes
+     */
+    private String checkpoint(List<Integer> targets, boolean truncate) {
+        String mode = truncate ? "TRUNCATE" : "PASSIVE";
+        return run(CHECKPOINT, targets, (shard, conn) -> {
+            long walBytes = shards.get(shard).getWalFile().length();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(" + mode + ")")) {
+                rs.next();
+                boolean busy = rs.getInt(1) != 0;
+                int walPages = rs.getInt(2);
+                int checkpointed = rs.getInt(3);
+                walCheckpointed[shard] = !busy && walPages == checkpointed;
+                return String.format(Locale.ROOT, "%s: %d of %d pages from a %d KB WAL%s", mode.toLowerCase(Locale.ROOT),
+                        checkpointed, walPages, walBytes / 1024, busy ? ", blocked by readers" : "");
+            }
+        });
+    }
+
+    private String optimize() {
+        return run(OPTIMIZE, allShards(), (shard, conn) -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA analysis_limit = " + ANALYSIS_LIMIT);
+                stmt.execute("PRAGMA optimize");
+            }
+            return "done";
+        });
+    }
+
+    /**
+     * Return up to vacuumMaxPages free pages to the file system; needs auto_vacuum = INCREMENTAL
+     */
+    private String incrementalVacuum() {
+        return run(INCREMENTAL_VACUUM, allShards(), (shard, conn) -> {
+            try (Statement stmt = conn.createStatement()) {
+                if (pragmaInt(stmt, "auto_vacuum") != 2) {
+                    return "skipped, auto_vacuum is not INCREMENTAL";
+                }
+                long free = pragmaInt(stmt, "freelist_count");
+                if (free == 0) {
+                    return "no free pages";
+                }
+                // Every step frees one page: executeUpdate runs it to the end, execute would stop after the first
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + vacuumMaxPages + ")");
+                return (free - pragmaInt(stmt, "freelist_count")) + " of " + free + " free pages released";
+            }
+        });
+    }
+
+    private static long pragmaInt(Statement stmt, String pragma) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardTask {
+        String run(int shard, Connection conn) throws SQLException;
+    }
+
+    private List<Integer> allShards() {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            all.add(i);
+        }
+        return all;
+    }
+
+    /**
+     * Run task on the writer connection of every target shard and record the combined result under name
+     */
+    private String run(String name, List<Integer> targets, ShardTask task) {
+        long start = System.nanoTime();
+        List<String> results = new ArrayList<>();
+        for (int shard : targets) {
+            DatabaseConnection connection = shards.get(shard);
+            String result;
+            try {
+                result = connection.withWriteConnection(conn -> task.run(shard, conn));
+            } catch (SQLException e) {
+                result = "failed: " + e.getMessage();
+                logger.log(Level.WARNING, "Maintenance task " + name + " failed on " + connection.getDatabaseFile().getName(), e);
+            }
+            results.add(shards.size() == 1 ? result : connection.getDatabaseFile().getName() + " " + result);
+        }
+        String result = String.join("; ", results);
+        long duration = (System.nanoTime() - start) / 1_000_000;
+        TaskStatus previous = status.get(name);
+        status.put(name, new TaskStatus(name, previous.runs() + 1, System.currentTimeMillis(), duration, result));
+        logger.fine("Maintenance " + name + " (" + duration + " ms): " + result);
+        return result;
+    }
+}
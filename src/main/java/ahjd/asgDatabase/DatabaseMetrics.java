@@ -0,0 +1,194 @@
+package ahjd.asgDatabase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Call counts and latency histograms per operation and data type, plus a slow-query log
+ */
+public class DatabaseMetrics {
+
+    /**
+     * Type recorded for operations that are not tied to one data type (custom SQL, flushes)
+     */
+    public static final String NO_TYPE = "-";
+    /**
+     * Types beyond this many per operation are folded into OTHER_TYPES so the map stays bounded
+     */
+    private static final int MAX_TYPES_PER_OPERATION = 256;
+    private static final String OTHER_TYPES = "*";
+
+    // 4 sub-buckets per power of two keeps every percentile within ~19% of the true value
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+    public record Snapshot(String operation, String dataType, long count, long errors,
+                           double p50Millis, double p99Millis, double maxMillis, double totalMillis) {}
+
+    private record Key(String operation, String dataType) {}
+
+    private final Logger logger;
+    private final Map<Key, Recorder> recorders = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> typesByOperation = new ConcurrentHashMap<>();
+    private volatile long slowThresholdNanos;
+
+    public DatabaseMetrics(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Log every operation slower than this (0 = off)
+     */
+    public void setSlowQueryThreshold(long millis) {
+        this.slowThresholdNanos = Math.max(0, millis) * 1_000_000;
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowThresholdNanos / 1_000_000;
+    }
+
+    // ==================== RECORDING ====================
+
+    public void record(String operation, String dataType, long startNanos, boolean failed) {
+        record(operation, dataType, startNanos, failed, null);
+    }
+
+    /**
+     * Record one call that started at startNanos; detail (e.g. the SQL) is only used in the slow-query log
+     */
+    public void record(String operation, String dataType, long startNanos, boolean failed, String detail) {
+        long elapsed = Math.max(0, System.nanoTime() - startNanos);
+        String type = dataType == null ? NO_TYPE : dataType;
+        recorder(operation, type).add(elapsed, failed);
+
+        long threshold = slowThresholdNanos;
+        if (threshold > 0 && elapsed >= threshold) {
+            logger.warning(String.format("Slow database operation %s [%s] took %.1f ms%s",
+                    operation, type, elapsed / 1_000_000.0, detail == null ? "" : ": " + detail));
+        }
+    }
+
+    // ==================== READING ====================
+
+    /**
+     * One entry per operation and data type, slowest total first
+     */
+    public List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        recorders.forEach((key, recorder) -> snapshots.add(recorder.snapshot(key.operation(), key.dataType())));
+        snapshots.sort(Comparator.comparingDouble(Snapshot::totalMillis).reversed());
+        return snapshots;
+    }
+
+    /**
+     * One entry per operation with all data types merged, slowest total first
+     */
+    public List<Snapshot> snapshotByOperation() {
+        Map<String, Recorder> merged = new HashMap<>();
+        recorders.forEach((key, recorder) -> merged.computeIfAbsent(key.operation(), o -> new Recorder()).merge(recorder));
+        List<Snapshot> snapshots = new ArrayList<>();
+        merged.forEach((operation, recorder) -> snapshots.add(recorder.snapshot(operation, NO_TYPE)));
+        snapshots.sort(Comparator.comparingDouble(Snapshot::totalMillis).reversed());
+        return snapshots;
+    }
+
+    public void reset() {
+        recorders.clear();
+        typesByOperation.clear();
+    }
+
+    // ==================== INTERNALS ====================
+
+    private Recorder recorder(String operation, String type) {
+        Recorder recorder = recorders.get(new Key(operation, type));
+        if (recorder != null) return recorder;
+
+        Set<String> types = typesByOperation.computeIfAbsent(operation, o -> ConcurrentHashMap.newKeySet());
+        if (!types.contains(type) && types.size() >= MAX_TYPES_PER_OPERATION) {
+            type = OTHER_TYPES;
+        }
+        types.add(type);
+        return recorders.computeIfAbsent(new Key(operation, type), k -> new Recorder());
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < (1L << SUB_BUCKET_BITS)) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+    }
+
+    /**
+     * Largest value that falls into a bucket
+     */
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < (1 << SUB_BUCKET_BITS)) return bucket;
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+        long lower = (1L << exponent) + (sub << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static final class Recorder {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void add(long nanos, boolean failed) {
+            count.increment();
+            if (failed) errors.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(bucketOf(nanos));
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        void merge(Recorder other) {
+            count.add(other.count.sum());
+            errors.add(other.errors.sum());
+            totalNanos.add(other.totalNanos.sum());
+            maxNanos.accumulateAndGet(other.maxNanos.get(), Math::max);
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = other.buckets.get(i);
+                if (n != 0) buckets.addAndGet(i, n);
+            }
+        }
+
+        Snapshot snapshot(String operation, String dataType) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long max = maxNanos.get();
+            return new Snapshot(operation, dataType, count.sum(), errors.sum(),
+                    millis(Math.min(percentile(counts, total, 0.50), max)),
+                    millis(Math.min(percentile(counts, total, 0.99), max)),
+                    millis(max), millis(totalNanos.sum()));
+        }
+
+        private static long percentile(long[] counts, long total, double quantile) {
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return bucketUpperBound(i);
+            }
+            return bucketUpperBound(counts.length - 1);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
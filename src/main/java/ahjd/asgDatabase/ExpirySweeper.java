@@ -0,0 +1,70 @@
+package ahjd.asgDatabase;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically deletes expired rows in small batches so the write lock is only ever held briefly
+ */
+public class ExpirySweeper {
+
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 5;
+
+    private final DatabaseAPI databaseAPI;
+    private final Logger logger;
+    private final int batchSize;
+    private final int maxBatchesPerCycle;
+    private final ScheduledExecutorService scheduler;
+
+    public ExpirySweeper(DatabaseAPI databaseAPI, Logger logger, int batchSize, int maxBatchesPerCycle) {
+        this.databaseAPI = databaseAPI;
+        this.logger = logger;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerCycle = Math.max(1, maxBatchesPerCycle);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AsgDatabase-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(long intervalSeconds) {
+        long interval = Math.max(1, intervalSeconds);
+        scheduler.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Run one cycle: at most maxBatchesPerCycle batches, anything left waits for the next cycle
+     */
+    public int sweep() {
+        int removed = 0;
+        try {
+            for (int batch = 0; batch < maxBatchesPerCycle; batch++) {
+                int count = databaseAPI.purgeExpired(batchSize);
+                removed += count;
+                if (count == 0) break;
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Expiry sweep failed", e);
+        }
+        if (removed > 0) {
+            logger.fine("Purged " + removed + " expired rows");
+        }
+        return removed;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ahjd.asgDatabase;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The best identifiers of one numeric data key, held in memory and updated by every write of that key so reading
+ * a top-N never touches the database. Only capacity identifiers are kept; when one of them drops out or falls to the
+ * bottom while others exist below it, the board turns stale and DatabaseAPI reloads it on the next read.
+ */
+public class Leaderboard {
+
+    /**
+     * One ranked identifier; equal values are ordered by identifier, so every rank is unique
+     */
+    public record Entry(int rank, String identifier, Number value) {}
+
+    private record Score(String identifier, Number value) {}
+
+    private final int capacity;
+    // Highest value first, ties in the order SQLite sorts the stored identifier column: the same order as the leaderboard SQL
+    private final Comparator<Score> order;
+    private final TreeSet<Score> ranked;
+    private final Map<String, Score> scores = new HashMap<>();
+    // Identifiers ranked below the held ones may exist in the database
+    private boolean truncated;
+    private boolean stale = true;
+    // Bumped by every write so a reload that raced with one is thrown away
+    private long modCount;
+    // Earliest expires_at among the held and written scores, Long.MAX_VALUE if none expire
+    private long expiresAt = Long.MAX_VALUE;
+
+    Leaderboard(int capacity, Comparator<String> identifierOrder) {
+        this.capacity = capacity;
+        this.order = (a, b) -> {
+            int byValue = compareValues(b.value(), a.value());
+            return byValue != 0 ? byValue : identifierOrder.compare(a.identifier(), b.identifier());
+        };
+        this.ranked = new TreeSet<>(order);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Apply a write of the key; a null value (deleted, expired or no longer numeric) drops the identifier
+     */
+    synchronized void update(String identifier, Number value, Long valueExpiresAt) {
+        modCount++;
+        if (stale) return;
+        if (valueExpiresAt != null) expiresAt = Math.min(expiresAt, valueExpiresAt);
+
+        Score previous = scores.remove(identifier);
+        if (previous != null) ranked.remove(previous);
+        if (value == null) {
+            // The best identifier below the board has to move up
+            if (previous != null && truncated) stale = true;
+            return;
+        }
+
+        Score score = new Score(identifier, value);
+        if (previous != null) {
+            // A held score that fell to the bottom may now rank below identifiers the board does not hold
+            if (truncated && order.compare(score, previous) > 0 && (ranked.isEmpty() || order.compare(score, ranked.last()) > 0)) {
+                stale = true;
+                return;
+            }
+        } else if (ranked.size() >= capacity) {
+            truncated = true;
+            if (order.compare(score, ranked.last()) > 0) return;
+            scores.remove(ranked.pollLast().identifier());
+        }
+        ranked.add(score);
+        scores.put(identifier, score);
+    }
+
+    /**
+     * Force a reload on the next read (e.g. after custom SQL)
+     */
+    synchronized void invalidate() {
+        modCount++;
+        stale = true;
+    }
+
+    /**
+     * Start a reload; pass the returned stamp to load once the rows are read
+     */
+    synchronized long loadStamp() {
+        return modCount;
+    }
+
+    /**
+     * Replace the board with rows read from the database in leaderboard order, at most capacity + 1 of them.
+     * Returns false and stays stale if a write came in after loadStamp, as the rows may not contain it.
+     */
+    synchronized boolean load(long stamp, List<Entry> rows, long rowsExpireAt) {
+        if (stamp != modCount) return false;
+        ranked.clear();
+        scores.clear();
+        for (Entry row : rows.subList(0, Math.min(rows.size(), capacity))) {
+            Score score = new Score(row.identifier(), row.value());
+            ranked.add(score);
+            scores.put(row.identifier(), score);
+        }
+        truncated = rows.size() > capacity;
+        expiresAt = rowsExpireAt;
+        stale = false;
+        return true;
+    }
+
+    /**
+     * The best n held entries, or null if the board has to be reloaded first
+     */
+    synchronized List<Entry> top(int n) {
+        if (isStale()) return null;
+        List<Entry> entries = new ArrayList<>(Math.min(n, ranked.size()));
+        for (Score score : ranked) {
+            if (entries.size() == n) break;
+            entries.add(new Entry(entries.size() + 1, score.identifier(), score.value()));
+        }
+        return entries;
+    }
+
+    /**
+     * Rank of identifier, 0 if it has no score, or null if only the database knows (stale, or below the board)
+     */
+    synchronized Integer rank(String identifier) {
+        if (isStale()) return null;
+        Score score = scores.get(identifier);
+        if (score != null) return ranked.headSet(score).size() + 1;
+        return truncated ? null : 0;
+    }
+
+    synchronized boolean isStale() {
+        // Expired scores are only dropped by reloading
+        if (!stale && System.currentTimeMillis() >= expiresAt) stale = true;
+        return stale;
+    }
+
+    /**
+     * Compare the way SQLite orders value_num: integers exactly, anything involving a double as doubles
+     */
+    private static int compareValues(Number a, Number b) {
+        if (a instanceof Double || b instanceof Double) {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+        return Long.compare(a.longValue(), b.longValue());
+    }
+}
@@ -0,0 +1,143 @@
+package ahjd.asgDatabase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Size, weight and TTL bounded LRU cache with hit/miss/eviction counters
+ */
+public class LruCache<K, V> {
+
+    private static final int STRIPES = 64;
+
+    public record Stats(long hits, long misses, long evictions, long expirations, int size, long weight) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    // expiresAt is a System.nanoTime() deadline, only checked when expires is set
+    private record Entry<V>(V value, boolean expires, long expiresAt, int weight) {}
+
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToIntFunction<V> weigher;
+    // Bumped on every invalidation so loads that raced with a write are not cached
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private long totalWeight;
+
+    /**
+     * @param maxEntries maximum number of entries, 0 for unlimited
+     * @param maxWeight maximum combined weight, 0 for unlimited
+     * @param ttlMillis time an entry stays valid after loading, 0 for no expiry
+     */
+    public LruCache(int maxEntries, long maxWeight, long ttlMillis, ToIntFunction<V> weigher) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expires() && System.nanoTime() - entry.expiresAt() > 0) {
+            map.remove(key);
+            totalWeight -= entry.weight();
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value();
+    }
+
+    /**
+     * Take a stamp before loading a value from the database
+     */
+    public long stamp(K key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * Cache a loaded value unless the key was invalidated since the stamp was taken
+     */
+    public synchronized void put(K key, V value, long stamp) {
+        put(key, value, stamp, Long.MAX_VALUE);
+    }
+
+    /**
+     * Cache a loaded value that must not be served after expiresAtMillis (epoch millis, Long.MAX_VALUE = no limit)
+     */
+    public synchronized void put(K key, V value, long stamp, long expiresAtMillis) {
+        if (stamps.get(stripe(key)) != stamp) return;
+
+        long now = System.nanoTime();
+        boolean expires = ttlNanos > 0;
+        long deadline = now + ttlNanos;
+        if (expiresAtMillis != Long.MAX_VALUE) {
+            // Clamped so far-future expiries cannot overflow the nanosecond deadline
+            long remainingNanos = Math.min(Math.max(0, expiresAtMillis - System.currentTimeMillis()), Long.MAX_VALUE / 4_000_000) * 1_000_000;
+            if (!expires || remainingNanos < ttlNanos) {
+                deadline = now + remainingNanos;
+            }
+            expires = true;
+        }
+
+        int weight = weigher.applyAsInt(value);
+        Entry<V> previous = map.put(key, new Entry<>(value, expires, deadline, weight));
+        if (previous != null) {
+            totalWeight -= previous.weight();
+        }
+        totalWeight += weight;
+        evict();
+    }
+
+    public synchronized void invalidate(K key) {
+        stamps.incrementAndGet(stripe(key));
+        Entry<V> removed = map.remove(key);
+        if (removed != null) {
+            totalWeight -= removed.weight();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+        map.clear();
+        totalWeight = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), map.size(), totalWeight);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, Entry<V>>> eldest = map.entrySet().iterator();
+        while (eldest.hasNext() && ((maxEntries > 0 && map.size() > maxEntries) || (maxWeight > 0 && totalWeight > maxWeight))) {
+            totalWeight -= eldest.next().getValue().weight();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static int stripe(Object key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,244 @@
+package ahjd.asgDatabase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Conditions on JSON fields of stored objects, with an optional sort field and limit, compiled into a single SQL
+ * statement over object_storage that SQLite's JSON functions evaluate without decoding the objects
+ */
+public final class ObjectQuery {
+
+    private enum Kind { COMPARE, IN, EXISTS, AND, OR, NOT }
+
+    // $ followed by .field and [index] steps. Paths are inlined into the SQL so it matches createObjectIndex expressions
+    private static final Pattern PATH = Pattern.compile("\\$(\\.[A-Za-z_][A-Za-z0-9_]*|\\[[0-9]+])*");
+
+    private final Kind kind;
+    private final String path;
+    private final String operator;
+    private final List<Object> values;
+    private final List<ObjectQuery> children;
+    private final String orderPath;
+    private final boolean descending;
+    private final int limit;
+
+    private ObjectQuery(Kind kind, String path, String operator, List<Object> values, List<ObjectQuery> children,
+                        String orderPath, boolean descending, int limit) {
+        this.kind = kind;
+        this.path = path;
+        this.operator = operator;
+        this.values = values;
+        this.children = children;
+        this.orderPath = orderPath;
+        this.descending = descending;
+        this.limit = limit;
+    }
+
+    private static ObjectQuery condition(Kind kind, String path, String operator, List<Object> values) {
+        return new ObjectQuery(kind, checkPath(path), operator, values, List.of(), null, false, 0);
+    }
+
+    private static ObjectQuery group(Kind kind, ObjectQuery... queries) {
+        return new ObjectQuery(kind, null, null, List.of(), List.of(queries), null, false, 0);
+    }
+
+    // ==================== CONDITIONS ====================
+
+    /**
+     * Objects whose field equals value; booleans compare as 1 and 0 like SQLite stores them
+     */
+    public static ObjectQuery eq(String path, Object value) {
+        return condition(Kind.COMPARE, path, "=", Collections.singletonList(sqlValue(value)));
+    }
+
+    /**
+     * Objects whose field differs from value, including those without the field
+     */
+    public static ObjectQuery ne(String path, Object value) {
+        return condition(Kind.COMPARE, path, "IS NOT", Collections.singletonList(sqlValue(value)));
+    }
+
+    public static ObjectQuery gt(String path, Object value) {
+        return condition(Kind.COMPARE, path, ">", Collections.singletonList(sqlValue(value)));
+    }
+
+    public static ObjectQuery gte(String path, Object value) {
+        return condition(Kind.COMPARE, path, ">=", Collections.singletonList(sqlValue(value)));
+    }
+
+    public static ObjectQuery lt(String path, Object value) {
+        return condition(Kind.COMPARE, path, "<", Collections.singletonList(sqlValue(value)));
+    }
+
+    public static ObjectQuery lte(String path, Object value) {
+        return condition(Kind.COMPARE, path, "<=", Collections.singletonList(sqlValue(value)));
+    }
+
+    /**
+     * Objects whose field equals any of values
+     */
+    public static ObjectQuery in(String path, Collection<?> values) {
+        List<Object> converted = new ArrayList<>();
+        values.forEach(value -> converted.add(sqlValue(value)));
+        return condition(Kind.IN, path, null, converted);
+    }
+
+    /**
+     * Objects that have the field with a non-null value
+     */
+    public static ObjectQuery exists(String path) {
+        return condition(Kind.EXISTS, path, null, List.of());
+    }
+
+    /**
+     * Objects matching every query; without arguments every object of the type
+     */
+    public static ObjectQuery all(ObjectQuery... queries) {
+        return group(Kind.AND, queries);
+    }
+
+    public static ObjectQuery any(ObjectQuery... queries) {
+        return group(Kind.OR, queries);
+    }
+
+    /**
+     * Objects not matching query, including those without the fields it looks at
+     */
+    public static ObjectQuery not(ObjectQuery query) {
+        return group(Kind.NOT, query);
+    }
+
+    public ObjectQuery and(ObjectQuery other) {
+        return all(this, other);
+    }
+
+    public ObjectQuery or(ObjectQuery other) {
+        return any(this, other);
+    }
+
+    public ObjectQuery negate() {
+        return not(this);
+    }
+
+    // ==================== ORDERING ====================
+
+    /**
+     * Sort by a field, ascending, with objects missing it first; ties and unsorted queries go by object id.
+     * Only the order and limit of the outermost query are used.
+     */
+    public ObjectQuery orderBy(String path) {
+        return new ObjectQuery(kind, this.path, operator, values, children, checkPath(path), false, limit);
+    }
+
+    public ObjectQuery orderByDescending(String path) {
+        return new ObjectQuery(kind, this.path, operator, values, children, checkPath(path), true, limit);
+    }
+
+    /**
+     * Return at most limit objects, 0 for no limit
+     */
+    public ObjectQuery limit(int limit) {
+        return new ObjectQuery(kind, path, operator, values, children, orderPath, descending, Math.max(0, limit));
+    }
+
+    // ==================== COMPILATION ====================
+
+    /**
+     * Boolean SQL expression over one object_storage row
+     */
+    String toSql(List<Object> params) {
+        return switch (kind) {
+            case COMPARE -> {
+                params.add(values.get(0));
+                yield field(path) + " " + operator + " ?";
+            }
+            case IN -> {
+                if (values.isEmpty()) yield "0";
+                params.addAll(values);
+                yield field(path) + " IN (" + String.join(", ", Collections.nCopies(values.size(), "?")) + ")";
+            }
+            case EXISTS -> field(path) + " IS NOT NULL";
+            case AND -> combine(" AND ", "1", params);
+            case OR -> combine(" OR ", "0", params);
+            // A missing field makes the inner expression NULL, which NOT would keep NULL and drop the object
+            case NOT -> "(" + children.get(0).toSql(params) + ") IS NOT 1";
+        };
+    }
+
+    private String combine(String operator, String empty, List<Object> params) {
+        if (children.isEmpty()) return empty;
+
+        StringBuilder sql = new StringBuilder();
+        for (ObjectQuery child : children) {
+            if (!sql.isEmpty()) sql.append(operator);
+            sql.append('(').append(child.toSql(params)).append(')');
+        }
+        return sql.toString();
+    }
+
+    /**
+     * ORDER BY and LIMIT clauses, starting with a space
+     */
+    String orderSql() {
+        // Ties go in the same direction, so an index on (field, object_id) can be walked backwards for DESC
+        String direction = descending ? " DESC" : "";
+        String order = orderPath == null ? " ORDER BY object_id"
+                : " ORDER BY " + field(orderPath) + direction + ", object_id" + direction;
+        return limit > 0 ? order + " LIMIT " + limit : order;
+    }
+
+    /**
+     * The value of a JSON field of object_data. Other formats, and compressed payloads JSON functions cannot read,
+     * count as missing. Indexes must use exactly this expression for SQLite to match them.
+     */
+    static String field(String path) {
+        return "CASE WHEN data_format = 'JSON' THEN json_extract(object_data, '" + checkPath(path) + "') END";
+    }
+
+    /**
+     * SQL string literal; object types are inlined so partial indexes on one type can be used
+     */
+    static String literal(String text) {
+        return "'" + text.replace("'", "''") + "'";
+    }
+
+    /**
+     * Name of the createObjectIndex index of one field of one type, readable and unique
+     */
+    static String indexName(String objectType, String path) {
+        String readable = (objectType + path.substring(1)).replaceAll("[^A-Za-z0-9]+", "_").toLowerCase(Locale.ROOT);
+        return "idx_object_json_" + readable + "_" + Integer.toHexString((objectType + '\0' + path).hashCode());
+    }
+
+    static String checkPath(String path) {
+        if (path == null || !PATH.matcher(path).matches()) {
+            throw new IllegalArgumentException("Unsupported JSON path " + path + ", expected something like $.stats.level or $.items[0]");
+        }
+        return path;
+    }
+
+    private static Object sqlValue(Object value) {
+        if (value instanceof Boolean bool) return bool ? 1 : 0;
+        if (value == null || value instanceof Number) return value;
+        return value.toString();
+    }
+
+    @Override
+    public String toString() {
+        String condition = switch (kind) {
+            case COMPARE -> path + " " + operator + " " + values.get(0);
+            case IN -> path + " IN " + values;
+            case EXISTS -> path;
+            case AND -> "(" + String.join(" AND ", children.stream().map(ObjectQuery::toString).toList()) + ")";
+            case OR -> "(" + String.join(" OR ", children.stream().map(ObjectQuery::toString).toList()) + ")";
+            case NOT -> "NOT " + children.get(0);
+        };
+        if (orderPath != null) condition += " ORDER BY " + orderPath + (descending ? " DESC" : "");
+        return limit > 0 ? condition + " LIMIT " + limit : condition;
+    }
+}
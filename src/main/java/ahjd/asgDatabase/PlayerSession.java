@@ -0,0 +1,195 @@
+package ahjd.asgDatabase;
+
+import java.util.*;
+
+/**
+ * In-memory copy of everything stored for one online player; reads never touch the database
+ * and changes are written back by {@link PlayerSessionManager}
+ */
+public class PlayerSession {
+
+    /**
+     * Changes taken out of a session for one write-back
+     */
+    record Changes(Map<String, Map<String, DatabaseAPI.StoredValue>> data, Map<String, Set<String>> removedKeys,
+                   Map<String, String> tags, Map<String, DatabaseAPI.StoredObject> objects) {
+        boolean isEmpty() {
+            return data.isEmpty() && removedKeys.isEmpty() && tags.isEmpty() && objects.isEmpty();
+        }
+    }
+
+    private final UUID uuid;
+    private final DatabaseAPI api;
+    private final long loadedAt = System.currentTimeMillis();
+
+    // Guarded by this
+    private final Map<String, Map<String, DatabaseAPI.StoredValue>> data;
+    private final Map<String, String> tags;
+    private final Map<String, DatabaseAPI.StoredObject> objects;
+    private Map<String, Map<String, DatabaseAPI.StoredValue>> dirtyData = new HashMap<>();
+    private Map<String, Set<String>> removedKeys = new HashMap<>();
+    private Map<String, String> dirtyTags = new HashMap<>();
+    private Map<String, DatabaseAPI.StoredObject> dirtyObjects = new HashMap<>();
+
+    PlayerSession(UUID uuid, DatabaseAPI api, DatabaseAPI.IdentifierSnapshot snapshot) {
+        this.uuid = uuid;
+        this.api = api;
+        this.data = snapshot.data();
+        this.tags = snapshot.tags();
+        this.objects = snapshot.objects();
+    }
+
+    public UUID getUniqueId() {
+        return uuid;
+    }
+
+    // ==================== DATA ====================
+
+    /**
+     * Get a value of the player_&lt;category&gt; data type with automatic type conversion; keys stored with a ttl
+     * read as absent once it has passed, as they do through DatabaseAPI
+     */
+    public synchronized <T> T getData(String category, String key, Class<T> expectedType) {
+        Map<String, DatabaseAPI.StoredValue> values = data.get(dataType(category));
+        DatabaseAPI.StoredValue stored = values == null ? null : values.get(key);
+        return stored == null || stored.isExpired(System.currentTimeMillis()) ? null : api.decode(stored, expectedType);
+    }
+
+    public synchronized Map<String, Object> getAllData(String category) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, DatabaseAPI.StoredValue> values = data.get(dataType(category));
+        if (values != null) {
+            long now = System.currentTimeMillis();
+            values.forEach((key, stored) -> {
+                if (!stored.isExpired(now)) result.put(key, api.decode(stored, Object.class));
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Categories that hold at least one live key
+     */
+    public synchronized Set<String> getCategories() {
+        Set<String> categories = new HashSet<>();
+        long now = System.currentTimeMillis();
+        data.forEach((dataType, values) -> {
+            if (values.values().stream().anyMatch(stored -> !stored.isExpired(now))) {
+                categories.add(dataType.substring(PlayerSessionManager.DATA_TYPE_PREFIX.length()));
+            }
+        });
+        return categories;
+    }
+
+    public void setData(String category, String key, Object value) {
+        // Encoded right away so later changes to a mutable value do not leak into the stored copy
+        DatabaseAPI.StoredValue stored = api.encode(value);
+        String dataType = dataType(category);
+        synchronized (this) {
+            data.computeIfAbsent(dataType, type -> new HashMap<>()).put(key, stored);
+            dirtyData.computeIfAbsent(dataType, type -> new HashMap<>()).put(key, stored);
+            Set<String> removed = removedKeys.get(dataType);
+            if (removed != null) removed.remove(key);
+        }
+    }
+
+    public void setAllData(String category, Map<String, Object> values) {
+        values.forEach((key, value) -> setData(category, key, value));
+    }
+
+    public synchronized void removeData(String category, String key) {
+        String dataType = dataType(category);
+        Map<String, DatabaseAPI.StoredValue> values = data.get(dataType);
+        if (values == null || values.remove(key) == null) return;
+
+        Map<String, DatabaseAPI.StoredValue> dirty = dirtyData.get(dataType);
+        if (dirty != null) dirty.remove(key);
+        removedKeys.computeIfAbsent(dataType, type -> new HashSet<>()).add(key);
+    }
+
+    // ==================== TAGS ====================
+
+    public synchronized Map<String, String> getTags() {
+        return new HashMap<>(tags);
+    }
+
+    public synchronized String getTag(String tagName) {
+        return tags.get(tagName);
+    }
+
+    public synchronized boolean hasTag(String tagName) {
+        return tags.containsKey(tagName);
+    }
+
+    public synchronized void setTag(String tagName, String tagValue) {
+        tags.put(tagName, tagValue);
+        dirtyTags.put(tagName, tagValue);
+    }
+
+    // ==================== OBJECTS ====================
+
+    /**
+     * Get the object stored with this player's UUID as its id
+     */
+    public <T> T getObject(String objectType, Class<T> expectedType) {
+        DatabaseAPI.StoredObject stored;
+        synchronized (this) {
+            stored = objects.get(objectType);
+        }
+        return stored == null ? null : api.decodeObject(stored, expectedType);
+    }
+
+    public void setObject(String objectType, Object object) {
+        DatabaseAPI.StoredObject stored = api.encodeObject(object);
+        synchronized (this) {
+            objects.put(objectType, stored);
+            dirtyObjects.put(objectType, stored);
+        }
+    }
+
+    // ==================== WRITE-BACK ====================
+
+    public synchronized boolean isDirty() {
+        return !dirtyData.isEmpty() || !removedKeys.isEmpty() || !dirtyTags.isEmpty() || !dirtyObjects.isEmpty();
+    }
+
+    long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * Take every change made since the last write-back
+     */
+    synchronized Changes drainChanges() {
+        Changes changes = new Changes(dirtyData, removedKeys, dirtyTags, dirtyObjects);
+        dirtyData = new HashMap<>();
+        removedKeys = new HashMap<>();
+        dirtyTags = new HashMap<>();
+        dirtyObjects = new HashMap<>();
+        return changes;
+    }
+
+    /**
+     * The write-back failed, mark its changes dirty again unless they were superseded meanwhile
+     */
+    synchronized void restoreChanges(Changes changes) {
+        changes.data().forEach((dataType, values) -> values.forEach((key, stored) -> {
+            Set<String> removed = removedKeys.get(dataType);
+            if (removed == null || !removed.contains(key)) {
+                dirtyData.computeIfAbsent(dataType, type -> new HashMap<>()).putIfAbsent(key, stored);
+            }
+        }));
+        changes.removedKeys().forEach((dataType, keys) -> keys.forEach(key -> {
+            Map<String, DatabaseAPI.StoredValue> dirty = dirtyData.get(dataType);
+            if (dirty == null || !dirty.containsKey(key)) {
+                removedKeys.computeIfAbsent(dataType, type -> new HashSet<>()).add(key);
+            }
+        }));
+        changes.tags().forEach(dirtyTags::putIfAbsent);
+        changes.objects().forEach(dirtyObjects::putIfAbsent);
+    }
+
+    private static String dataType(String category) {
+        return PlayerSessionManager.DATA_TYPE_PREFIX + category;
+    }
+}
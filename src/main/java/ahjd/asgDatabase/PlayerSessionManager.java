@@ -0,0 +1,204 @@
+package ahjd.asgDatabase;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Preloads all player_* data, tags and objects of a player before they join and writes back only
+ * the changed keys periodically and when they quit
+ */
+public class PlayerSessionManager implements Listener {
+
+    static final String DATA_TYPE_PREFIX = "player_";
+    static final String TAG_TARGET_TYPE = "player";
+
+    // A session loaded for a login that was denied afterwards is dropped after this long
+    private static final long ABANDONED_SESSION_MS = 60_000;
+
+    private final Plugin plugin;
+    private final DatabaseAPI api;
+    private final DatabaseExecutor executor;
+    private final Logger logger;
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    private BukkitTask flushTask;
+
+    public PlayerSessionManager(Plugin plugin, DatabaseAPI api, DatabaseExecutor executor) {
+        this.plugin = plugin;
+        this.api = api;
+        this.executor = executor;
+        this.logger = plugin.getLogger();
+    }
+
+    /**
+     * Register the listeners, load players that are already online and start the periodic write-back
+     */
+    public void start(long flushIntervalTicks) {
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            loadLater(player.getUniqueId());
+        }
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::flushAllLater, flushIntervalTicks, flushIntervalTicks);
+    }
+
+    // ==================== ACCESS ====================
+
+    /**
+     * The loaded session of an online player, or null if it is not (yet) available
+     */
+    public PlayerSession getSession(UUID uuid) {
+        return sessions.get(uuid);
+    }
+
+    public PlayerSession getSession(Player player) {
+        return getSession(player.getUniqueId());
+    }
+
+    public boolean isLoaded(UUID uuid) {
+        return sessions.containsKey(uuid);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    // ==================== EVENTS ====================
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+
+        UUID uuid = event.getUniqueId();
+        // Still online from another connection, its session already holds the newest state
+        if (sessions.containsKey(uuid)) return;
+
+        // Already on an async thread, so wait here; queued as a read so it sees the flush of a previous quit
+        try {
+            PlayerSession session = executor.submitRead(() -> load(uuid)).join();
+            if (session != null) {
+                sessions.putIfAbsent(uuid, session);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed to preload data for " + event.getName(), e);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        // Preload failed or the player replaced a previous connection whose session was already written back
+        UUID uuid = event.getPlayer().getUniqueId();
+        if (!sessions.containsKey(uuid)) {
+            loadLater(uuid);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        PlayerSession session = sessions.remove(event.getPlayer().getUniqueId());
+        if (session != null && !executor.isShutdown()) {
+            executor.submitWrite(() -> flush(session));
+        }
+    }
+
+    // ==================== WRITE-BACK ====================
+
+    /**
+     * Write back the changed keys of one session on the calling thread
+     */
+    public boolean flush(PlayerSession session) {
+        PlayerSession.Changes changes = session.drainChanges();
+        if (changes.isEmpty()) return true;
+
+        String identifier = session.getUniqueId().toString();
+        List<WriteBehindBuffer.DataWrite> data = new ArrayList<>();
+        changes.data().forEach((dataType, values) -> values.forEach((key, stored) ->
+                data.add(new WriteBehindBuffer.DataWrite(dataType, identifier, key, stored.value(), stored.valueType(), null))));
+        List<WriteBehindBuffer.ObjectWrite> objects = new ArrayList<>();
+        changes.objects().forEach((objectType, stored) ->
+                objects.add(new WriteBehindBuffer.ObjectWrite(objectType, identifier, stored.data(), stored.format())));
+        List<WriteBehindBuffer.TagWrite> tags = new ArrayList<>();
+        changes.tags().forEach((tagName, tagValue) ->
+                tags.add(new WriteBehindBuffer.TagWrite(TAG_TARGET_TYPE, identifier, tagName, tagValue)));
+
+        if (!api.applyChanges(identifier, new WriteBehindBuffer.Batch(data, objects, tags), changes.removedKeys())) {
+            session.restoreChanges(changes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write back every session on the calling thread
+     */
+    public void flushAll() {
+        sessions.values().forEach(this::flush);
+    }
+
+    /**
+     * Write back everything and forget all sessions (call after async work has drained)
+     */
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
+        flushAll();
+        sessions.clear();
+    }
+
+    // ==================== INTERNALS ====================
+
+    private PlayerSession load(UUID uuid) {
+        try {
+            DatabaseAPI.IdentifierSnapshot snapshot = api.loadIdentifier(DATA_TYPE_PREFIX, TAG_TARGET_TYPE, uuid.toString());
+            return new PlayerSession(uuid, api, snapshot);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to load session for " + uuid, e);
+            return null;
+        }
+    }
+
+    private void loadLater(UUID uuid) {
+        executor.submitRead(() -> load(uuid)).thenAccept(session -> {
+            // Skip if the player left while loading
+            if (session != null && Bukkit.getPlayer(uuid) != null) {
+                sessions.putIfAbsent(uuid, session);
+            }
+        });
+    }
+
+    /**
+     * Runs on the main thread: drop sessions of logins that never completed and queue the write-back
+     */
+    private void flushAllLater() {
+        long now = System.currentTimeMillis();
+        List<PlayerSession> abandoned = new ArrayList<>();
+        sessions.values().removeIf(session -> {
+            if (Bukkit.getPlayer(session.getUniqueId()) == null && now - session.getLoadedAt() > ABANDONED_SESSION_MS) {
+                abandoned.add(session);
+                return true;
+            }
+            return false;
+        });
+
+        if (!executor.isShutdown()) {
+            executor.submitWrite(() -> {
+                abandoned.forEach(this::flush);
+                flushAll();
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package ahjd.asgDatabase;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites existing rows into newer on-disk formats in small batches while the server keeps running
+ */
+public class SchemaMigrator {
+
+    // Tracked in PRAGMA user_version
+    static final int TYPED_VALUES = 1;
+    static final int COMPACT_OBJECTS = 2;
+    static final int SPATIAL_INDEX = 3;
+    // Opt-in (database.compact-data), so it is only the target version when requested or already under way
+    static final int COMPACT_DATA = 4;
+    static final int LATEST_VERSION = SPATIAL_INDEX;
+
+    private static final int BATCH_ROWS = 2000;
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 5;
+
+    // The original data_storage table between the switch to the compact layout and its batched removal
+    private static final String MIGRATED_TABLE = "data_storage_migrated";
+    private static final String[] MIRROR_TRIGGERS = {"data_compact_mirror_insert", "data_compact_mirror_update", "data_compact_mirror_delete"};
+
+    private final DatabaseConnection dbConnection;
+    private final Logger logger;
+    private final boolean compactData;
+    private volatile Thread worker;
+
+    public SchemaMigrator(DatabaseConnection dbConnection, Logger logger) {
+        this(dbConnection, logger, false);
+    }
+
+    /**
+     * @param compactData also convert data_storage to the compact layout (see DataLayout)
+     */
+    public SchemaMigrator(DatabaseConnection dbConnection, Logger logger, boolean compactData) {
+        this.dbConnection = dbConnection;
+        this.logger = logger;
+        this.compactData = compactData;
+    }
+
+    /**
+     * Start migrating in the background if the database is behind the latest format
+     */
+    public void start() {
+        try {
+            if (getVersion() >= targetVersion()) return;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to read schema version", e);
+            return;
+        }
+
+        worker = new Thread(this::run, "AsgDatabase-Migrator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public boolean isRunning() {
+        Thread thread = worker;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Interrupt an unfinished migration; it resumes from the start of the current step next time
+     */
+    public void stop() {
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            if (getVersion() < TYPED_VALUES) {
+                migrateTypedValues();
+                setVersion(TYPED_VALUES);
+            }
+            if (getVersion() < COMPACT_OBJECTS) {
+                compactObjects();
+                setVersion(COMPACT_OBJECTS);
+            }
+            if (getVersion() < SPATIAL_INDEX) {
+                indexLocations();
+                setVersion(SPATIAL_INDEX);
+            }
+            if (targetVersion() >= COMPACT_DATA && getVersion() < COMPACT_DATA) {
+                compactData();
+                setVersion(COMPACT_DATA);
+            }
+        } catch (InterruptedException e) {
+            logger.info("Schema migration paused, it will resume on next start");
+        } catch (SQLException e) {
+            // stop() can also land while a batch waits for a connection
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("Schema migration paused, it will resume on next start");
+                return;
+            }
+            logger.log(Level.SEVERE, "Schema migration failed, it will be retried on next start", e);
+        }
+    }
+
+    /**
+     * Move numeric and boolean values from the data_value text column into value_num
+     */
+    private void migrateTypedValues() throws SQLException, InterruptedException {
+        String sql = """
+            UPDATE data_storage SET
+                value_num = CASE value_type
+                    WHEN 'INTEGER' THEN CAST(data_value AS INTEGER)
+                    WHEN 'LONG' THEN CAST(data_value AS INTEGER)
+                    WHEN 'DOUBLE' THEN CAST(data_value AS REAL)
+                    WHEN 'BOOLEAN' THEN lower(data_value) = 'true'
+                END,
+                data_value = NULL
+            WHERE id > ? AND id <= ?
+              AND value_type IN ('INTEGER', 'LONG', 'DOUBLE', 'BOOLEAN')
+              AND data_value IS NOT NULL
+              AND data_value NOT IN ('NaN', 'Infinity', '-Infinity')
+        """;
+
+        logger.info("Migrating data_storage values to native columns...");
+        long converted = forEachIdRange("data_storage", sql);
+        logger.info("Migrated " + converted + " data_storage values to native columns");
+    }
+
+    /**
+     * Strip the whitespace older versions pretty printed into JSON objects
+     */
+    private void compactObjects() throws SQLException, InterruptedException {
+        String sql = """
+            UPDATE object_storage SET object_data = json(object_data)
+            WHERE id > ? AND id <= ?
+              AND data_format = 'JSON'
+              AND json_valid(object_data)
+              AND length(json(object_data)) < length(object_data)
+        """;
+
+        long converted = forEachIdRange("object_storage", sql);
+        logger.info("Compacted " + converted + " object_storage payloads");
+    }
+
+    /**
+     * Add entities and holograms stored before the spatial index existed
+     */
+    private void indexLocations() throws SQLException, InterruptedException {
+        // Batches walk the "world" rows; every statement looks up the matching x/y/z rows itself
+        String located = "FROM data_storage w WHERE w.id > ? AND w.id <= ? AND w.data_type IN ('entity', 'hologram') AND w.data_key = 'world'";
+        String spaces = "INSERT OR IGNORE INTO spatial_spaces (data_type, world) SELECT w.data_type, w.data_value " + located;
+        String points = "INSERT OR IGNORE INTO spatial_points (data_type, identifier) SELECT w.data_type, w.identifier " + located;
+        String index = """
+            INSERT OR REPLACE INTO spatial_index
+            SELECT p.id, s.id, s.id, x.value_num, x.value_num, y.value_num, y.value_num, z.value_num, z.value_num,
+                   w.identifier, x.value_num, y.value_num, z.value_num
+            FROM data_storage w
+            JOIN spatial_spaces s ON s.data_type = w.data_type AND s.world = w.data_value
+            JOIN spatial_points p ON p.data_type = w.data_type AND p.identifier = w.identifier
+            JOIN data_storage x ON x.data_type = w.data_type AND x.identifier = w.identifier AND x.data_key = 'x'
+            JOIN data_storage y ON y.data_type = w.data_type AND y.identifier = w.identifier AND y.data_key = 'y'
+            JOIN data_storage z ON z.data_type = w.data_type AND z.identifier = w.identifier AND z.data_key = 'z'
+            WHERE w.id > ? AND w.id <= ? AND w.data_type IN ('entity', 'hologram') AND w.data_key = 'world'
+              AND x.value_num IS NOT NULL AND y.value_num IS NOT NULL AND z.value_num IS NOT NULL
+        """;
+
+        long indexed = forEachIdRange("data_storage", spaces, points, index);
+        logger.info("Indexed " + indexed + " stored entity and hologram locations");
+    }
+
+    /**
+     * Move data_storage into the compact layout while the server keeps writing: triggers mirror every change into
+     * data_compact, batches copy the existing rows, then one short transaction swaps data_storage for a view
+     */
+    private void compactData() throws SQLException, InterruptedException {
+        if (!dbConnection.getDataLayout().isCompact()) {
+            logger.info("Converting data_storage to the compact layout...");
+            dbConnection.withWriteConnection(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS data_names (id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)");
+                    stmt.execute("""
+                        CREATE TABLE IF NOT EXISTS data_compact (
+                            data_type INTEGER NOT NULL, -- data_names.id
+                            identifier NOT NULL, -- 16-byte BLOB for canonical lowercase UUIDs, TEXT otherwise
+                            data_key INTEGER NOT NULL, -- data_names.id
+                            data_value TEXT,
+                            value_num,
+                            value_type TEXT NOT NULL DEFAULT 'STRING',
+                            metadata TEXT,
+                            expires_at INTEGER,
+                            updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                            PRIMARY KEY (data_type, identifier, data_key)
+                        ) WITHOUT ROWID
+                    """);
+                    // No identifier index: sessions probe the primary key once per interned type instead
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_compact_expires ON data_compact(expires_at) WHERE expires_at IS NOT NULL");
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS " + MIRROR_TRIGGERS[0] + " AFTER INSERT ON data_storage BEGIN "
+                            + insertCompact("NEW", true) + " END");
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS " + MIRROR_TRIGGERS[1] + " AFTER UPDATE ON data_storage BEGIN "
+                            + "DELETE FROM data_compact WHERE " + compactKey("OLD") + "; "
+                            + insertCompact("NEW", true) + " END");
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS " + MIRROR_TRIGGERS[2] + " AFTER DELETE ON data_storage BEGIN "
+                            + "DELETE FROM data_compact WHERE " + compactKey("OLD") + "; END");
+                }
+                return null;
+            });
+
+            // Rows changed from here on are mirrored, so copying every row up to the current max id is enough
+            String names = """
+                INSERT OR IGNORE INTO data_names (name)
+                SELECT data_type FROM data_storage WHERE id > ?1 AND id <= ?2
+                UNION SELECT data_key FROM data_storage WHERE id > ?1 AND id <= ?2
+            """;
+            String rows = """
+                INSERT OR REPLACE INTO data_compact (data_type, identifier, data_key, data_value, value_num, value_type, metadata, expires_at, updated_at)
+                SELECT t.id, %s, k.id, d.data_value, d.value_num, d.value_type, d.metadata, d.expires_at, d.updated_at
+                FROM data_storage d
+                JOIN data_names t ON t.name = d.data_type
+                JOIN data_names k ON k.name = d.data_key
+                WHERE d.id > ? AND d.id <= ?
+            """.formatted(DataLayout.encodeIdentifierSql("d.identifier"));
+            long copied = forEachIdRange("data_storage", names, rows);
+            switchToCompact();
+            logger.info("Converted " + copied + " data_storage rows to the compact layout");
+        }
+
+        // The old table is emptied in batches so dropping it does not hold the write lock for long
+        if (schemaObjectExists("table", MIGRATED_TABLE)) {
+            forEachIdRange(MIGRATED_TABLE, "DELETE FROM " + MIGRATED_TABLE + " WHERE id > ? AND id <= ?");
+            dbConnection.withWriteConnection(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    return stmt.executeUpdate("DROP TABLE IF EXISTS " + MIGRATED_TABLE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Replace data_storage with a view over data_compact that custom SQL can keep reading and writing
+     */
+    private void switchToCompact() throws SQLException {
+        String decoded = """
+            CREATE VIEW data_storage AS
+            SELECT t.name AS data_type, %s AS identifier, k.name AS data_key, d.data_value, d.value_num, d.value_type,
+                   d.metadata, d.expires_at, d.updated_at
+            FROM data_compact d
+            JOIN data_names t ON t.id = d.data_type
+            JOIN data_names k ON k.id = d.data_key
+        """.formatted(DataLayout.decodeIdentifierSql("d.identifier"));
+        String update = """
+            UPDATE data_compact SET data_type = (SELECT id FROM data_names WHERE name = NEW.data_type), identifier = %s,
+                data_key = (SELECT id FROM data_names WHERE name = NEW.data_key), data_value = NEW.data_value,
+                value_num = NEW.value_num, value_type = NEW.value_type, metadata = NEW.metadata,
+                expires_at = NEW.expires_at, updated_at = NEW.updated_at
+            WHERE %s;
+        """.formatted(DataLayout.encodeIdentifierSql("NEW.identifier"), compactKey("OLD"));
+
+        dbConnection.withWriteConnection(conn -> {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                for (String trigger : MIRROR_TRIGGERS) {
+                    stmt.execute("DROP TRIGGER IF EXISTS " + trigger);
+                }
+                // Renaming would carry them over, and emptying the old table would then drop every point
+                for (String trigger : DatabaseConnection.LOCATION_TRIGGERS) {
+                    stmt.execute("DROP TRIGGER IF EXISTS " + trigger);
+                }
+                stmt.execute("ALTER TABLE data_storage RENAME TO " + MIGRATED_TABLE);
+                stmt.execute(decoded);
+                // A plain INSERT, so INSERT OR REPLACE on the view replaces the row the way it would in a table
+                stmt.execute("CREATE TRIGGER data_storage_insert INSTEAD OF INSERT ON data_storage BEGIN "
+                        + insertCompact("NEW", false) + " END");
+                stmt.execute("CREATE TRIGGER data_storage_update INSTEAD OF UPDATE ON data_storage BEGIN "
+                        + internNames("NEW") + " " + update + " END");
+                stmt.execute("CREATE TRIGGER data_storage_delete INSTEAD OF DELETE ON data_storage BEGIN "
+                        + "DELETE FROM data_compact WHERE " + compactKey("OLD") + "; END");
+                for (String trigger : DatabaseConnection.locationTriggers(true)) {
+                    stmt.execute(trigger);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            // Still holding the write lock, so no writer can use the old layout after the swap
+            dbConnection.useCompactLayout();
+            return null;
+        });
+    }
+
+    /**
+     * Trigger body writing row (NEW) into data_compact, interning its type and key first; replace drops the row it
+     * would collide with first
+     */
+    private static String insertCompact(String row, boolean replace) {
+        return internNames(row) + (replace ? " DELETE FROM data_compact WHERE " + compactKey(row) + ";" : "") + """
+            INSERT INTO data_compact (data_type, identifier, data_key, data_value, value_num, value_type, metadata, expires_at, updated_at)
+            VALUES ((SELECT id FROM data_names WHERE name = %1$s.data_type), %2$s, (SELECT id FROM data_names WHERE name = %1$s.data_key),
+                    %1$s.data_value, %1$s.value_num, COALESCE(%1$s.value_type, 'STRING'), %1$s.metadata, %1$s.expires_at,
+                    COALESCE(%1$s.updated_at, CURRENT_TIMESTAMP));
+        """.formatted(row, DataLayout.encodeIdentifierSql(row + ".identifier"));
+    }
+
+    /**
+     * Trigger statement adding the type and key of row to data_names. Trigger statements take the conflict policy of
+     * the statement that fired them, so INSERT OR IGNORE would turn into an upsert's ABORT, or into REPLACE under
+     * INSERT OR REPLACE, which gives an existing name a new id and orphans every row using the old one.
+     */
+    private static String internNames(String row) {
+        return "INSERT INTO data_names (name) SELECT name FROM (SELECT " + row + ".data_type AS name UNION SELECT " + row
+                + ".data_key) WHERE name NOT IN (SELECT name FROM data_names);";
+    }
+
+    /**
+     * WHERE clause matching the data_compact row of a data_storage row (OLD)
+     */
+    private static String compactKey(String row) {
+        return "data_type = (SELECT id FROM data_names WHERE name = " + row + ".data_type) AND identifier = "
+                + DataLayout.encodeIdentifierSql(row + ".identifier") + " AND data_key = (SELECT id FROM data_names WHERE name = "
+                + row + ".data_key)";
+    }
+
+    private boolean schemaObjectExists(String type, String name) throws SQLException {
+        return dbConnection.withReadConnection(conn -> {
+            PreparedStatement stmt = dbConnection.prepareCached(conn, "SELECT 1 FROM sqlite_master WHERE type = ? AND name = ?");
+            stmt.setString(1, type);
+            stmt.setString(2, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        });
+    }
+
+    /**
+     * Once the compact layout has been started it is always finished, even if database.compact-data was turned off.
+     * A conversion stopped before the swap is recognised by its mirror triggers, which would otherwise keep copying
+     * every write into a data_compact table nothing reads.
+     */
+    private int targetVersion() throws SQLException {
+        if (compactData || dbConnection.getDataLayout().isCompact()) return COMPACT_DATA;
+        return schemaObjectExists("trigger", MIRROR_TRIGGERS[0]) ? COMPACT_DATA : LATEST_VERSION;
+    }
+
+    /**
+     * Run updates taking (fromExclusive, toInclusive) id bounds over every existing row of a table,
+     * one transaction per batch; returns the rows changed by the last statement
+     */
+    private long forEachIdRange(String table, String... statements) throws SQLException, InterruptedException {
+        // Rows written after this point already use the new format
+        long maxId = dbConnection.withReadConnection(conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+
+        long converted = 0;
+        for (long lastId = 0; lastId < maxId; lastId += BATCH_ROWS) {
+            long from = lastId;
+            // Each batch is its own short transaction so regular writers are never blocked for long
+            converted += dbConnection.withWriteConnection(conn -> {
+                conn.setAutoCommit(false);
+                try {
+                    int changed = 0;
+                    for (String sql : statements) {
+                        PreparedStatement stmt = dbConnection.prepareCached(conn, sql);
+                        stmt.setLong(1, from);
+                        stmt.setLong(2, from + BATCH_ROWS);
+                        changed = stmt.executeUpdate();
+                    }
+                    conn.commit();
+                    return changed;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            });
+            if (Thread.interrupted()) throw new InterruptedException();
+            Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+        }
+        return converted;
+    }
+
+    private int getVersion() throws SQLException {
+        return dbConnection.withReadConnection(conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    private void setVersion(int version) throws SQLException {
+        dbConnection.withWriteConnection(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                return stmt.executeUpdate("PRAGMA user_version = " + version);
+            }
+        });
+    }
+}
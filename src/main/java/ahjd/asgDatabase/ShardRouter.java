@@ -0,0 +1,108 @@
+package ahjd.asgDatabase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps each data type, object type and tag target type to one of several database files, each with its own writer.
+ * A namespace always lands on the same shard, so data, objects and tags of one type stay together.
+ */
+public class ShardRouter {
+
+    /**
+     * How types without an explicit route are placed
+     */
+    public enum Mode {
+        /**
+         * Spread over all shards by a stable hash of the type name
+         */
+        HASH,
+        /**
+         * Keep them on the primary shard (Database.db)
+         */
+        PRIMARY
+    }
+
+    private final List<DatabaseConnection> shards;
+    private final Mode mode;
+    private final Map<String, Integer> exactRoutes = new HashMap<>();
+    // Longest prefix first, so "player_stats*" wins over "player_*"
+    private final NavigableMap<String, Integer> prefixRoutes = new TreeMap<>(
+            Comparator.comparingInt(String::length).reversed().thenComparing(Comparator.naturalOrder()));
+    private final Map<String, Integer> resolved = new ConcurrentHashMap<>();
+
+    /**
+     * @param shards the primary (Database.db) first
+     * @param routes type -> shard index; a key ending in * matches every type with that prefix
+     */
+    public ShardRouter(List<DatabaseConnection> shards, Mode mode, Map<String, Integer> routes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+        this.mode = mode;
+        routes.forEach((type, shard) -> {
+            if (shard < 0 || shard >= shards.size()) {
+                throw new IllegalArgumentException("Route " + type + " points at shard " + shard
+                        + " but only 0.." + (shards.size() - 1) + " exist");
+            }
+            if (type.endsWith("*")) {
+                prefixRoutes.put(type.substring(0, type.length() - 1), shard);
+            } else {
+                exactRoutes.put(type, shard);
+            }
+        });
+    }
+
+    /**
+     * Everything in one file, as without sharding
+     */
+    public static ShardRouter single(DatabaseConnection connection) {
+        return new ShardRouter(List.of(connection), Mode.PRIMARY, Map.of());
+    }
+
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /**
+     * Database.db; relationships and custom SQL always live here
+     */
+    public DatabaseConnection primary() {
+        return shards.get(0);
+    }
+
+    public List<DatabaseConnection> getShards() {
+        return shards;
+    }
+
+    public DatabaseConnection forType(String type) {
+        return shards.get(shardIndex(type));
+    }
+
+    /**
+     * Index of the shard holding type; null (no particular type) is the primary
+     */
+    public int shardIndex(String type) {
+        if (type == null || shards.size() == 1) return 0;
+        Integer cached = resolved.get(type);
+        if (cached != null) return cached;
+
+        int shard = route(type);
+        // Types come from callers and are unbounded, so only remember a reasonable number of them
+        if (resolved.size() < 10_000) {
+            resolved.put(type, shard);
+        }
+        return shard;
+    }
+
+    private int route(String type) {
+        Integer exact = exactRoutes.get(type);
+        if (exact != null) return exact;
+        for (Map.Entry<String, Integer> entry : prefixRoutes.entrySet()) {
+            if (type.startsWith(entry.getKey())) return entry.getValue();
+        }
+        // String.hashCode is specified by the JLS, so the placement survives restarts and JVM upgrades
+        return mode == Mode.HASH ? Math.floorMod(type.hashCode(), shards.size()) : 0;
+    }
+}
@@ -0,0 +1,70 @@
+package ahjd.asgDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU of prepared statements belonging to a single connection
+ */
+class StatementCache {
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the cached statement for this SQL, preparing it on first use
+     */
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            try {
+                // A batch that failed half way must not leak into the next caller
+                stmt.clearBatch();
+                // The driver finalizes a statement whose execution failed without marking it closed; this throws then
+                stmt.clearParameters();
+            } catch (SQLException e) {
+                closeQuietly(stmt);
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+        }
+        return stmt;
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    synchronized void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            // The statement is discarded either way
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ahjd.asgDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Boolean combination of tag conditions, compiled into a single SQL statement over data_tags
+ */
+public final class TagQuery {
+
+    private enum Kind { EQUALS, EXISTS, PREFIX, AND, OR, NOT }
+
+    private final Kind kind;
+    private final String tagName;
+    private final String tagValue;
+    private final List<TagQuery> children;
+
+    private TagQuery(Kind kind, String tagName, String tagValue, List<TagQuery> children) {
+        this.kind = kind;
+        this.tagName = tagName;
+        this.tagValue = tagValue;
+        this.children = children;
+    }
+
+    // ==================== CONDITIONS ====================
+
+    /**
+     * Targets whose tag has exactly this value
+     */
+    public static TagQuery eq(String tagName, String tagValue) {
+        return new TagQuery(Kind.EQUALS, tagName, tagValue, List.of());
+    }
+
+    /**
+     * Targets that have the tag, whatever its value
+     */
+    public static TagQuery exists(String tagName) {
+        return new TagQuery(Kind.EXISTS, tagName, null, List.of());
+    }
+
+    /**
+     * Targets whose tag value starts with valuePrefix (case-sensitive)
+     */
+    public static TagQuery prefix(String tagName, String valuePrefix) {
+        if (valuePrefix.isEmpty()) return exists(tagName);
+        return new TagQuery(Kind.PREFIX, tagName, valuePrefix, List.of());
+    }
+
+    /**
+     * Targets matching every query; at least one is required
+     */
+    public static TagQuery all(TagQuery... queries) {
+        return new TagQuery(Kind.AND, null, null, requireQueries(queries));
+    }
+
+    /**
+     * Targets matching at least one query; at least one is required
+     */
+    public static TagQuery any(TagQuery... queries) {
+        return new TagQuery(Kind.OR, null, null, requireQueries(queries));
+    }
+
+    public static TagQuery not(TagQuery query) {
+        return new TagQuery(Kind.NOT, null, null, List.of(query));
+    }
+
+    public TagQuery and(TagQuery other) {
+        return all(this, other);
+    }
+
+    public TagQuery or(TagQuery other) {
+        return any(this, other);
+    }
+
+    public TagQuery negate() {
+        return not(this);
+    }
+
+    private static List<TagQuery> requireQueries(TagQuery[] queries) {
+        // An empty group would compile to an empty SELECT
+        if (queries.length == 0) throw new IllegalArgumentException("A tag query group needs at least one condition");
+        return List.of(queries);
+    }
+
+    // ==================== COMPILATION ====================
+
+    /**
+     * Build a SELECT returning the matching target_ids of one target type
+     */
+    String toSql(String targetType, List<Object> params) {
+        switch (kind) {
+            case EQUALS -> {
+                params.add(targetType);
+                params.add(tagName);
+                params.add(tagValue);
+                return "SELECT target_id FROM data_tags WHERE target_type = ? AND tag_name = ? AND tag_value = ? AND " + DatabaseAPI.NOT_EXPIRED;
+            }
+            case EXISTS -> {
+                params.add(targetType);
+                params.add(tagName);
+                return "SELECT target_id FROM data_tags WHERE target_type = ? AND tag_name = ? AND " + DatabaseAPI.NOT_EXPIRED;
+            }
+            case PREFIX -> {
+                // A range instead of LIKE so idx_tag_lookup_expiry can serve it
+                params.add(targetType);
+                params.add(tagName);
+                params.add(tagValue);
+                String upperBound = DatabaseAPI.prefixUpperBound(tagValue);
+                if (upperBound != null) params.add(upperBound);
+                return "SELECT target_id FROM data_tags WHERE target_type = ? AND tag_name = ? AND tag_value >= ?"
+                        + (upperBound == null ? "" : " AND tag_value < ?") + " AND " + DatabaseAPI.NOT_EXPIRED;
+            }
+            case OR -> {
+                return combine(children, " UNION ", targetType, params);
+            }
+            case NOT -> {
+                // Every target of the type that has at least one live tag
+                params.add(targetType);
+                String universe = "SELECT target_id FROM data_tags WHERE target_type = ? AND " + DatabaseAPI.NOT_EXPIRED;
+                return universe + " EXCEPT " + wrap(children.get(0).toSql(targetType, params));
+            }
+            default -> {
+                // Negated terms of an AND are subtracted from the positive ones rather than from every target
+                List<TagQuery> positive = new ArrayList<>();
+                List<TagQuery> negative = new ArrayList<>();
+                for (TagQuery child : children) {
+                    if (child.kind == Kind.NOT) {
+                        negative.add(child.children.get(0));
+                    } else {
+                        positive.add(child);
+                    }
+                }
+                if (positive.isEmpty()) {
+                    return not(any(negative.toArray(TagQuery[]::new))).toSql(targetType, params);
+                }
+
+                StringBuilder sql = new StringBuilder(combine(positive, " INTERSECT ", targetType, params));
+                for (TagQuery child : negative) {
+                    sql.append(" EXCEPT ").append(wrap(child.toSql(targetType, params)));
+                }
+                return sql.toString();
+            }
+        }
+    }
+
+    private static String combine(List<TagQuery> queries, String operator, String targetType, List<Object> params) {
+        if (queries.size() == 1) return queries.get(0).toSql(targetType, params);
+
+        StringBuilder sql = new StringBuilder();
+        for (TagQuery query : queries) {
+            if (!sql.isEmpty()) sql.append(operator);
+            sql.append(wrap(query.toSql(targetType, params)));
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Compound SELECTs cannot be parenthesized directly, so nested ones become subqueries
+     */
+    private static String wrap(String select) {
+        return "SELECT target_id FROM (" + select + ")";
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case EQUALS -> tagName + "=" + tagValue;
+            case EXISTS -> tagName;
+            case PREFIX -> tagName + "=" + tagValue + "*";
+            case AND -> "(" + String.join(" AND ", children.stream().map(TagQuery::toString).toList()) + ")";
+            case OR -> "(" + String.join(" OR ", children.stream().map(TagQuery::toString).toList()) + ")";
+            case NOT -> "NOT " + children.get(0);
+        };
+    }
+}
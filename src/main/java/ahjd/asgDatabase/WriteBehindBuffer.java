@@ -0,0 +1,320 @@
+package ahjd.asgDatabase;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces upserts by their unique key until they are flushed in one transaction
+ */
+public class WriteBehindBuffer {
+
+    public record DataWrite(String dataType, String identifier, String key, Object value, String valueType, String metadata) {}
+
+    public record ObjectWrite(String objectType, String objectId, String data, String format) {}
+
+    public record TagWrite(String targetType, String targetId, String tagName, String tagValue) {}
+
+    record Owner(String type, String id) {}
+
+    /**
+     * Everything that was pending when a flush started
+     */
+    public record Batch(List<DataWrite> data, List<ObjectWrite> objects, List<TagWrite> tags) {
+        public static final Batch EMPTY = new Batch(List.of(), List.of(), List.of());
+
+        public boolean isEmpty() {
+            return data.isEmpty() && objects.isEmpty() && tags.isEmpty();
+        }
+
+        public int size() {
+            return data.size() + objects.size() + tags.size();
+        }
+    }
+
+    private final Logger logger;
+    private final Runnable flushTask;
+    private final int batchSize;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    // Guarded by this
+    private Map<Owner, LinkedHashMap<String, DataWrite>> pendingData = new HashMap<>();
+    private Map<Owner, ObjectWrite> pendingObjects = new HashMap<>();
+    private Map<Owner, LinkedHashMap<String, TagWrite>> pendingTags = new HashMap<>();
+    private Map<Owner, LinkedHashMap<String, DataWrite>> inFlightData = Map.of();
+    private Map<Owner, ObjectWrite> inFlightObjects = Map.of();
+    private Map<Owner, LinkedHashMap<String, TagWrite>> inFlightTags = Map.of();
+    private int pendingCount;
+
+    public WriteBehindBuffer(Logger logger, Runnable flushTask, long flushIntervalMs, int batchSize, int maxPending) {
+        this.logger = logger;
+        this.flushTask = flushTask;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AsgDatabase-WriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runFlush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ==================== ENQUEUE ====================
+
+    public void addData(DataWrite write) {
+        awaitCapacity();
+        synchronized (this) {
+            Owner owner = new Owner(write.dataType(), write.identifier());
+            if (pendingData.computeIfAbsent(owner, o -> new LinkedHashMap<>()).put(write.key(), write) == null) {
+                pendingCount++;
+            }
+        }
+        afterEnqueue();
+    }
+
+    public void addObject(ObjectWrite write) {
+        awaitCapacity();
+        synchronized (this) {
+            if (pendingObjects.put(new Owner(write.objectType(), write.objectId()), write) == null) {
+                pendingCount++;
+            }
+        }
+        afterEnqueue();
+    }
+
+    public void addTag(TagWrite write) {
+        awaitCapacity();
+        synchronized (this) {
+            Owner owner = new Owner(write.targetType(), write.targetId());
+            if (pendingTags.computeIfAbsent(owner, o -> new LinkedHashMap<>()).put(write.tagName(), write) == null) {
+                pendingCount++;
+            }
+        }
+        afterEnqueue();
+    }
+
+    // ==================== READ OVERLAY ====================
+
+    public synchronized DataWrite getData(String dataType, String identifier, String key) {
+        Owner owner = new Owner(dataType, identifier);
+        DataWrite write = lookup(pendingData, owner, key);
+        return write != null ? write : lookup(inFlightData, owner, key);
+    }
+
+    /**
+     * Pending writes for one identifier, oldest first so newer values win when applied in order
+     */
+    public synchronized List<DataWrite> getAllData(String dataType, String identifier) {
+        Owner owner = new Owner(dataType, identifier);
+        List<DataWrite> writes = new ArrayList<>();
+        Map<String, DataWrite> inFlight = inFlightData.get(owner);
+        if (inFlight != null) writes.addAll(inFlight.values());
+        Map<String, DataWrite> pending = pendingData.get(owner);
+        if (pending != null) writes.addAll(pending.values());
+        return writes;
+    }
+
+    /**
+     * Pending writes for an identifier across all data types, oldest first
+     */
+    public synchronized List<DataWrite> getDataForIdentifier(String identifier) {
+        List<DataWrite> writes = new ArrayList<>();
+        collectData(inFlightData, identifier, writes);
+        collectData(pendingData, identifier, writes);
+        return writes;
+    }
+
+    public synchronized ObjectWrite getObject(String objectType, String objectId) {
+        Owner owner = new Owner(objectType, objectId);
+        ObjectWrite write = pendingObjects.get(owner);
+        return write != null ? write : inFlightObjects.get(owner);
+    }
+
+    public synchronized Set<String> getObjectIds(String objectType) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (Owner owner : inFlightObjects.keySet()) {
+            if (owner.type().equals(objectType)) ids.add(owner.id());
+        }
+        for (Owner owner : pendingObjects.keySet()) {
+            if (owner.type().equals(objectType)) ids.add(owner.id());
+        }
+        return ids;
+    }
+
+    /**
+     * Pending object writes for an id across all object types, oldest first
+     */
+    public synchronized List<ObjectWrite> getObjectsForId(String objectId) {
+        List<ObjectWrite> writes = new ArrayList<>();
+        inFlightObjects.forEach((owner, write) -> {
+            if (owner.id().equals(objectId)) writes.add(write);
+        });
+        pendingObjects.forEach((owner, write) -> {
+            if (owner.id().equals(objectId)) writes.add(write);
+        });
+        return writes;
+    }
+
+    public synchronized List<TagWrite> getTags(String targetType, String targetId) {
+        Owner owner = new Owner(targetType, targetId);
+        List<TagWrite> writes = new ArrayList<>();
+        Map<String, TagWrite> inFlight = inFlightTags.get(owner);
+        if (inFlight != null) writes.addAll(inFlight.values());
+        Map<String, TagWrite> pending = pendingTags.get(owner);
+        if (pending != null) writes.addAll(pending.values());
+        return writes;
+    }
+
+    /**
+     * Pending writes of one tag name across all targets of a type, oldest first
+     */
+    public synchronized List<TagWrite> getTagsByName(String targetType, String tagName) {
+        List<TagWrite> writes = new ArrayList<>();
+        collectTags(inFlightTags, targetType, tagName, writes);
+        collectTags(pendingTags, targetType, tagName, writes);
+        return writes;
+    }
+
+    // ==================== FLUSH LIFECYCLE ====================
+
+    public synchronized int size() {
+        return pendingCount;
+    }
+
+    /**
+     * Move everything pending into the in-flight set (caller must hold the write connection)
+     */
+    public synchronized Batch drain() {
+        inFlightData = pendingData;
+        inFlightObjects = pendingObjects;
+        inFlightTags = pendingTags;
+        pendingData = new HashMap<>();
+        pendingObjects = new HashMap<>();
+        pendingTags = new HashMap<>();
+        pendingCount = 0;
+
+        List<DataWrite> data = new ArrayList<>();
+        inFlightData.values().forEach(writes -> data.addAll(writes.values()));
+        List<TagWrite> tags = new ArrayList<>();
+        inFlightTags.values().forEach(writes -> tags.addAll(writes.values()));
+        return new Batch(data, new ArrayList<>(inFlightObjects.values()), tags);
+    }
+
+    /**
+     * The drained batch is durable, stop overlaying it
+     */
+    public synchronized void complete() {
+        inFlightData = Map.of();
+        inFlightObjects = Map.of();
+        inFlightTags = Map.of();
+    }
+
+    /**
+     * The drained batch failed, put back every entry that was not superseded meanwhile
+     */
+    public synchronized void restore() {
+        inFlightData.forEach((owner, writes) -> writes.forEach((key, write) -> {
+            if (pendingData.computeIfAbsent(owner, o -> new LinkedHashMap<>()).putIfAbsent(key, write) == null) {
+                pendingCount++;
+            }
+        }));
+        inFlightObjects.forEach((owner, write) -> {
+            if (pendingObjects.putIfAbsent(owner, write) == null) {
+                pendingCount++;
+            }
+        });
+        inFlightTags.forEach((owner, writes) -> writes.forEach((name, write) -> {
+            if (pendingTags.computeIfAbsent(owner, o -> new LinkedHashMap<>()).putIfAbsent(name, write) == null) {
+                pendingCount++;
+            }
+        }));
+        complete();
+    }
+
+    /**
+     * Forget pending writes for an identifier that is being deleted (caller must hold the write connection)
+     */
+    public synchronized void discardData(String dataType, String identifier) {
+        Map<String, DataWrite> removed = pendingData.remove(new Owner(dataType, identifier));
+        if (removed != null) {
+            pendingCount -= removed.size();
+        }
+    }
+
+    /**
+     * Forget a pending write for a key that is being deleted (caller must hold the write connection)
+     */
+    public synchronized void discardDataKey(String dataType, String identifier, String key) {
+        Map<String, DataWrite> pending = pendingData.get(new Owner(dataType, identifier));
+        if (pending != null && pending.remove(key) != null) {
+            pendingCount--;
+        }
+    }
+
+    /**
+     * Stop the background flusher; the caller performs the final flush
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== INTERNALS ====================
+
+    private void afterEnqueue() {
+        if (size() >= batchSize && flushRequested.compareAndSet(false, true) && !scheduler.isShutdown()) {
+            scheduler.execute(this::runFlush);
+        }
+    }
+
+    /**
+     * Backpressure: once the buffer is full, the producer flushes on its own thread
+     */
+    private void awaitCapacity() {
+        if (size() >= maxPending) {
+            flushTask.run();
+        }
+    }
+
+    private void runFlush() {
+        flushRequested.set(false);
+        try {
+            flushTask.run();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Write-behind flush failed", e);
+        }
+    }
+
+    private static <V> V lookup(Map<Owner, LinkedHashMap<String, V>> map, Owner owner, String key) {
+        Map<String, V> writes = map.get(owner);
+        return writes == null ? null : writes.get(key);
+    }
+
+    private static void collectData(Map<Owner, LinkedHashMap<String, DataWrite>> map, String identifier, List<DataWrite> out) {
+        map.forEach((owner, writes) -> {
+            if (owner.id().equals(identifier)) out.addAll(writes.values());
+        });
+    }
+
+    private static void collectTags(Map<Owner, LinkedHashMap<String, TagWrite>> map, String targetType, String tagName, List<TagWrite> out) {
+        map.forEach((owner, writes) -> {
+            if (owner.type().equals(targetType)) {
+                TagWrite write = writes.get(tagName);
+                if (write != null) out.add(write);
+            }
+        });
+    }
+}
@@ -0,0 +1,199 @@
+package ahjd.asgDatabase;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The online conversion to the compact layout against a temp-file database: rows written while it runs and rows
+ * left by a conversion stopped half way must come back unchanged through both layouts and the data_storage view
+ */
+class SchemaMigratorTest {
+
+    private static final Logger LOGGER = Logger.getLogger("AsgDatabase-Test");
+    private static final String DATA_TYPE = "migrated_data";
+    private static final long TIMEOUT_MS = 60_000;
+
+    @TempDir
+    Path dataFolder;
+
+    private DatabaseConnection connection;
+
+    @AfterEach
+    void tearDown() {
+        if (connection != null) connection.disconnect();
+    }
+
+    @Test
+    void rowsWrittenDuringTheConversionSurviveIt() throws Exception {
+        connection = open();
+        DatabaseAPI api = new DatabaseAPI(connection);
+        Map<String, Map<String, Object>> expected = seed(api, 6000);
+        api.storeDataBatch("hologram", "h1", Map.of("world", "world", "x", 1.0, "y", 2.0, "z", 3.0));
+        assertFalse(connection.getDataLayout().isCompact());
+        assertEquals(expected.get(identifier(7)), api.getAllData(DATA_TYPE, identifier(7)));
+
+        SchemaMigrator migrator = new SchemaMigrator(connection, LOGGER, true);
+        migrator.start();
+        int written = 0;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (migrator.isRunning() && System.currentTimeMillis() < deadline) {
+            // New identifiers, updates of copied rows and deletes, each read back through whichever layout is live
+            String fresh = identifier(100_000 + written);
+            store(api, expected, fresh, "score", written);
+            store(api, expected, identifier(written % 6000), "name", "renamed-" + written);
+            if (written % 3 == 0) {
+                String deleted = identifier((written * 7) % 6000);
+                api.deleteDataKey(DATA_TYPE, deleted, "level");
+                expected.get(deleted).remove("level");
+            }
+            assertEquals(expected.get(fresh), api.getAllData(DATA_TYPE, fresh));
+            written++;
+        }
+        assertFalse(migrator.isRunning(), "conversion did not finish");
+        assertTrue(written > 0, "no rows were written during the conversion");
+        assertTrue(connection.getDataLayout().isCompact());
+        assertFalse(tableExists("data_storage_migrated"));
+
+        // Custom SQL replacing a row through the view must not re-intern the names every other row points at
+        api.executeUpdate("INSERT OR REPLACE INTO data_storage (data_type, identifier, data_key, data_value, value_type) "
+                + "VALUES (?, ?, 'name', 'custom', 'STRING')", DATA_TYPE, identifier(2));
+        expected.get(identifier(2)).put("name", "custom");
+
+        assertRows(api, expected);
+        // The spatial index survived the swap and follows writes made through the new layout
+        assertEquals(List.of("h1"), api.findInRadius("hologram", "world", 1, 2, 3, 0.5));
+        api.storeData("hologram", "h1", "x", 10.0);
+        assertEquals(List.of("h1"), api.findInRadius("hologram", "world", 10, 2, 3, 0.5));
+        assertEquals(List.of(), api.findInRadius("hologram", "world", 1, 2, 3, 0.5));
+    }
+
+    @Test
+    void conversionStoppedHalfWayFinishesAfterRestartWithCompactDataOff() throws Exception {
+        connection = open();
+        DatabaseAPI api = new DatabaseAPI(connection);
+        Map<String, Map<String, Object>> expected = seed(api, 15_000);
+
+        SchemaMigrator migrator = new SchemaMigrator(connection, LOGGER, true);
+        migrator.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!triggerExists("data_compact_mirror_insert") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        migrator.stop();
+        assertTrue(triggerExists("data_compact_mirror_insert"), "conversion never started");
+        assertFalse(connection.getDataLayout().isCompact(), "conversion finished before it could be stopped");
+
+        // Written between the stop and the restart, so only the mirror triggers carry it over
+        store(api, expected, identifier(1), "name", "after-stop");
+        connection.disconnect();
+
+        connection = open();
+        assertFalse(connection.getDataLayout().isCompact());
+        migrator = new SchemaMigrator(connection, LOGGER, false);
+        migrator.start();
+        deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (migrator.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(migrator.isRunning(), "conversion did not finish");
+        assertTrue(connection.getDataLayout().isCompact());
+        assertFalse(triggerExists("data_compact_mirror_insert"));
+        assertFalse(tableExists("data_storage_migrated"));
+
+        assertRows(new DatabaseAPI(connection), expected);
+
+        // Reopened as compact, the layout is detected from the view
+        connection.disconnect();
+        connection = open();
+        assertTrue(connection.getDataLayout().isCompact());
+        assertRows(new DatabaseAPI(connection), expected);
+    }
+
+    // ==================== HELPERS ====================
+
+    private DatabaseConnection open() {
+        DatabaseConnection opened = new DatabaseConnection(dataFolder.toFile(), LOGGER, 2, 64);
+        assertTrue(opened.connect(), "could not open the test database");
+        return opened;
+    }
+
+    /**
+     * Three keys per identifier, half of them canonical UUIDs so both identifier encodings are converted
+     */
+    private static Map<String, Map<String, Object>> seed(DatabaseAPI api, int identifiers) {
+        Map<String, Map<String, Object>> expected = new HashMap<>();
+        for (int i = 0; i < identifiers; i++) {
+            Map<String, Object> values = new HashMap<>(Map.of("name", "player-" + i, "level", i % 100, "balance", i * 1.5));
+            assertTrue(api.storeDataBatch(DATA_TYPE, identifier(i), values));
+            expected.put(identifier(i), values);
+        }
+        return expected;
+    }
+
+    private static void store(DatabaseAPI api, Map<String, Map<String, Object>> expected, String identifier, String key, Object value) {
+        assertTrue(api.storeData(DATA_TYPE, identifier, key, value));
+        expected.computeIfAbsent(identifier, id -> new HashMap<>()).put(key, value);
+    }
+
+    private static String identifier(int i) {
+        return i % 2 == 0 ? new UUID(0x5EED, i).toString() : "name-" + i;
+    }
+
+    /**
+     * Every row through the compact DataLayout, then through the data_storage view as custom SQL sees it
+     */
+    private static void assertRows(DatabaseAPI api, Map<String, Map<String, Object>> expected) throws SQLException {
+        for (Map.Entry<String, Map<String, Object>> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), api.getAllData(DATA_TYPE, entry.getKey()), entry.getKey());
+        }
+
+        Map<String, Map<String, Object>> viewed = api.query(
+                "SELECT identifier, data_key, data_value, value_num FROM data_storage WHERE data_type = ?", rs -> {
+                    Map<String, Map<String, Object>> rows = new HashMap<>();
+                    while (rs.next()) {
+                        Object value = rs.getString("data_value") != null ? rs.getString("data_value") : rs.getObject("value_num");
+                        rows.computeIfAbsent(rs.getString("identifier"), id -> new HashMap<>()).put(rs.getString("data_key"), value);
+                    }
+                    return rows;
+                }, DATA_TYPE);
+        expected.forEach((identifier, values) -> {
+            Map<String, Object> row = viewed.getOrDefault(identifier, Map.of());
+            assertEquals(values.keySet(), row.keySet(), identifier);
+            values.forEach((key, value) -> assertEquals(String.valueOf(value), String.valueOf(row.get(key)), identifier + "/" + key));
+        });
+        assertEquals(expected.keySet(), viewed.keySet());
+    }
+
+    private boolean triggerExists(String name) throws SQLException {
+        return schemaObjectExists("trigger", name);
+    }
+
+    private boolean tableExists(String name) throws SQLException {
+        return schemaObjectExists("table", name);
+    }
+
+    private boolean schemaObjectExists(String type, String name) throws SQLException {
+        return connection.withReadConnection(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = ? AND name = ?")) {
+                stmt.setString(1, type);
+                stmt.setString(2, name);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next();
+                }
+            }
+        });
+    }
+}